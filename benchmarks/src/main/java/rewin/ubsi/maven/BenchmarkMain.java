@@ -0,0 +1,27 @@
+package rewin.ubsi.maven;
+
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+
+/**
+ * 运行性能测试：java -jar target/benchmarks.jar [JMH参数]，缺省以JSON格式输出到target/jmh-result.json
+ */
+public class BenchmarkMain {
+
+    final static String RESULT_FILE = "target/jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions cmd = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(cmd);
+        if ( !cmd.getResultFormat().hasValue() )
+            builder.resultFormat(ResultFormatType.JSON);
+        if ( !cmd.getResult().hasValue() )
+            builder.result(RESULT_FILE);
+        Options options = builder.build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,88 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 依赖树的查找：建立索引、按artifactId/groupId:artifactId查找、计算全部依赖、依赖树缓存的读写
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DependencyBenchmark {
+
+    /* 依赖树的规模：每个节点的子节点数量 x 层数 */
+    @Param({ "4x5", "8x4" })
+    public String shape;
+
+    DependencyNode root;
+    DependencyIndex index;
+    String[] ids;
+    String[] keys;
+    File dir;
+    GraphCache cache;
+
+    @Setup
+    public void setup() throws Exception {
+        String[] wd = shape.split("x");
+        root = Fixtures.graph(Integer.parseInt(wd[0]), Integer.parseInt(wd[1]), 500);
+        index = new DependencyIndex(root);
+        ids = new String[64];
+        keys = new String[64];
+        for ( int i = 0; i < ids.length; i ++ ) {
+            int name = i * 7 % 500;
+            ids[i] = "lib-" + name;
+            keys[i] = "bench.g" + (name % 16) + ":lib-" + name;
+        }
+        dir = Fixtures.tempDir("ubsi-bench-graph");
+        cache = new GraphCache(dir);
+        cache.save("bench", root, artifact -> null);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Fixtures.delete(dir);
+    }
+
+    @Benchmark
+    public DependencyIndex buildIndex() {
+        return new DependencyIndex(root);
+    }
+
+    @Benchmark
+    public void findByArtifactId(Blackhole bh) {
+        for ( String id : ids )
+            bh.consume(index.find(id));
+    }
+
+    @Benchmark
+    public void findByKey(Blackhole bh) {
+        for ( String key : keys )
+            bh.consume(index.find(key));
+    }
+
+    /* 没有缓存时计算一个模块的全部依赖 */
+    @Benchmark
+    public int dependencyCold() {
+        DependencyIndex idx = new DependencyIndex(root);
+        return idx.getDependency(idx.find(ids[0])).size() + idx.getDependency(root).size();
+    }
+
+    /* 缓存后再次获取全部依赖 */
+    @Benchmark
+    public int dependencyCached() {
+        return index.getDependency(root).size();
+    }
+
+    @Benchmark
+    public DependencyNode graphCacheLoad() {
+        return cache.load("bench");
+    }
+}
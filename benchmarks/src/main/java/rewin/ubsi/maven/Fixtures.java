@@ -0,0 +1,93 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * 性能测试使用的数据：合成的依赖树、临时文件及目录
+ */
+class Fixtures {
+
+    final static DefaultArtifactHandler JAR = new DefaultArtifactHandler("jar");
+
+    /** 创建一个JAR包的Artifact */
+    static Artifact artifact(String groupId, String artifactId, String version) {
+        return new DefaultArtifact(groupId, artifactId, version, "compile", "jar", null, JAR);
+    }
+
+    /**
+     * 合成的依赖树：每个节点有width个子节点，共depth层，
+     * 节点的artifactId在shared个名字中重复出现，模拟多个模块依赖相同的JAR包
+     */
+    static DependencyNode graph(int width, int depth, int shared) {
+        DefaultDependencyNode root = node(null, artifact("bench", "root", "1.0"));
+        int[] seq = new int[] { 0 };
+        grow(root, width, depth, shared, seq);
+        return root;
+    }
+    private static void grow(DefaultDependencyNode parent, int width, int depth, int shared, int[] seq) {
+        if ( depth <= 0 )
+            return;
+        for ( int i = 0; i < width; i ++ ) {
+            int id = seq[0] ++;
+            int name = shared > 0 ? id % shared : id;
+            DefaultDependencyNode child = node(parent, artifact("bench.g" + (name % 16), "lib-" + name, "1." + (id % 7)));
+            parent.getChildren().add(child);
+            grow(child, width, depth - 1, shared, seq);
+        }
+    }
+    private static DefaultDependencyNode node(DependencyNode parent, Artifact artifact) {
+        DefaultDependencyNode node = new DefaultDependencyNode(parent, artifact, null, null, null);
+        node.setChildren(new ArrayList<>());
+        return node;
+    }
+
+    /** 写入指定长度的随机内容，ratio为可压缩部分（重复内容）的比例 */
+    static File file(File dir, String name, int length, double ratio, long seed) throws IOException {
+        File file = new File(dir, name);
+        file.getParentFile().mkdirs();
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        int repeat = (int)(length * ratio);
+        for ( int i = 0; i < repeat; i ++ )
+            data[i] = (byte)"ubsi-maven-plugin ".charAt(i % 18);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    /** 创建资源目录：dirs个子目录，每个子目录files个文件 */
+    static File tree(File dir, int dirs, int files, int length) throws IOException {
+        for ( int d = 0; d < dirs; d ++ )
+            for ( int f = 0; f < files; f ++ )
+                file(dir, "d" + d + File.separator + "f" + f + ".txt", length, 0.5, d * 1000 + f);
+        return dir;
+    }
+
+    /** 创建临时目录 */
+    static File tempDir(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix).toFile();
+    }
+
+    /** 删除目录 */
+    static void delete(File dir) throws IOException {
+        if ( dir == null || !dir.exists() )
+            return;
+        try (Stream<java.nio.file.Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+}
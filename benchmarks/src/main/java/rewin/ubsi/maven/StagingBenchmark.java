@@ -0,0 +1,98 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ubsi:run的运行目录准备：选择core-libs的版本，同步JAR包及资源目录（全量复制/硬链接/无变化的增量同步）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StagingBenchmark {
+
+    /* 是否使用硬链接代替复制 */
+    @Param({ "false", "true" })
+    public boolean link;
+
+    File src;                   // JAR包及资源目录
+    File run;                   // 运行目录
+    List<Artifact> cores = new ArrayList<>();   // 有版本冲突的core-libs
+    Map<String, File> jars = new HashMap<>();
+    Map<String, File> resources = new HashMap<>();
+
+    @Setup
+    public void setup() throws Exception {
+        src = Fixtures.tempDir("ubsi-bench-src");
+        run = Fixtures.tempDir("ubsi-bench-run");
+        for ( int i = 0; i < 40; i ++ ) {
+            File jar = Fixtures.file(src, "jars" + File.separator + "lib-" + i + ".jar", 256*1024, 0.3, i);
+            jars.put(jar.getName(), jar);
+            for ( int v = 0; v < 3; v ++ ) {
+                Artifact artifact = Fixtures.artifact("bench.g" + (i % 4), i < 2 ? "ubsi-core-" + i : "lib-" + i, "1." + v + ".0");
+                artifact.setFile(jar);
+                cores.add(artifact);
+            }
+        }
+        Stager.collect(Fixtures.tree(new File(src, "res"), 10, 20, 4096), "svc", resources);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        Fixtures.delete(src);
+        Fixtures.delete(run);
+    }
+
+    // 清空运行目录，测试全量同步
+    private Stager clean() throws Exception {
+        Fixtures.delete(run);
+        run.mkdirs();
+        return new Stager(run, link);
+    }
+
+    @Benchmark
+    public int resolveCoreLibs() {
+        CoreResolver resolver = new CoreResolver(id -> id.startsWith("ubsi-core"));
+        for ( Artifact artifact : cores )
+            resolver.add(artifact);
+        return resolver.getArtifacts().size() + resolver.getConflicts().size();
+    }
+
+    /* 首次运行：JAR包及资源文件全部复制/链接到运行目录 */
+    @Benchmark
+    public int syncFull() throws Exception {
+        Stager stager = clean();
+        stager.sync(new File(run, "libs"), jars);
+        stager.sync(new File(run, "modules"), resources);
+        stager.save();
+        return stager.copied + stager.linked;
+    }
+
+    /* 再次运行：内容没有变化 */
+    @Benchmark
+    public int syncUnchanged() throws Exception {
+        Stager stager = new Stager(run, link);
+        stager.sync(new File(run, "libs"), jars);
+        stager.sync(new File(run, "modules"), resources);
+        stager.save();
+        return stager.unchanged;
+    }
+
+    /* 收集资源目录中的文件（原copyDir的遍历部分） */
+    @Benchmark
+    public int collectDir() {
+        Map<String, File> files = new HashMap<>();
+        Stager.collect(new File(src, "res"), "svc", files);
+        return files.size();
+    }
+}
@@ -0,0 +1,107 @@
+package rewin.ubsi.maven;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 文件的分块上传：JAR包及资源目录通过ChunkUploader/Compression发送到进程内的容器桩，
+ * 桩按offset写入内存并模拟每个请求的网络延迟
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+
+    /* 在途请求数量 */
+    @Param({ "1", "4" })
+    public int window;
+
+    /* 压缩级别，0表示不压缩 */
+    @Param({ "0", "6" })
+    public int level;
+
+    /* 每个请求的模拟延迟（微秒） */
+    @Param({ "0", "500" })
+    public int latency;
+
+    File dir;
+    File jar;
+    File res;
+    ChunkUploader uploader;
+    Compression compression;
+    StubContainer stub;
+
+    /* 容器管理接口的桩：uploadJar/putResourceFile按offset写入 */
+    static class StubContainer {
+        final int latency;
+        volatile byte[] data = new byte[0];
+
+        StubContainer(int latency) {
+            this.latency = latency;
+        }
+
+        void write(long offset, byte[] buf, int length) {
+            if ( latency > 0 )
+                LockSupport.parkNanos(latency * 1000L);
+            synchronized (this) {
+                if ( data.length < offset + length )
+                    data = java.util.Arrays.copyOf(data, (int)(offset + length));
+                System.arraycopy(buf, 0, data, (int)offset, Math.min(buf.length, length));
+            }
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        dir = Fixtures.tempDir("ubsi-bench-upload");
+        jar = Fixtures.file(dir, "service.jar", 16*1024*1024, 0.5, 1);
+        res = Fixtures.tree(new File(dir, "res"), 10, 20, 8192);
+        uploader = new ChunkUploader(window, 0, ChunkUploader.CHUNK_SIZE, false);
+        compression = new Compression(level);
+        stub = new StubContainer(latency);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        uploader.shutdown();
+        Fixtures.delete(dir);
+    }
+
+    // 发送到桩，压缩的数据块只计算长度（与容器解压后的写入量相同）
+    private ChunkUploader.Sender sender(File file) {
+        return compression.wrap(file, level > 0,
+                (offset, buf) -> stub.write(offset, buf, buf.length),
+                (offset, buf, raw) -> stub.write(offset, buf, raw));
+    }
+
+    /* 与Deployer.uploadJar相同的上传过程 */
+    @Benchmark
+    public int uploadJar() throws Exception {
+        uploader.upload(jar, sender(jar));
+        return stub.data.length;
+    }
+
+    /* 与Deployer.uploadDir相同的遍历及逐个文件上传 */
+    @Benchmark
+    public int uploadDir() throws Exception {
+        return upload(res);
+    }
+    private int upload(File dir) throws Exception {
+        int count = 0;
+        for ( File file : dir.listFiles() ) {
+            if ( file.isDirectory() )
+                count += upload(file);
+            else if ( file.isFile() ) {
+                uploader.upload(file, sender(file));
+                count ++;
+            }
+        }
+        return count;
+    }
+}
@@ -3,7 +3,9 @@ package rewin.ubsi.maven;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.io.xpp3.MavenXpp3Writer;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
@@ -13,13 +15,15 @@ import org.apache.maven.project.ProjectBuildingRequest;
 import org.apache.maven.shared.dependency.graph.DependencyGraphBuilder;
 import org.apache.maven.shared.dependency.graph.DependencyNode;
 import rewin.ubsi.common.Util;
+import rewin.ubsi.consumer.Context;
 import rewin.ubsi.container.ServiceContext;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Maven-Project的基础信息、依赖以及UBSI插件的配置
@@ -33,7 +37,7 @@ public abstract class AbstractUbsiMojo extends AbstractMojo {
     private String classifier;
 
     @Parameter( defaultValue = "${project.build.directory}", required = true, readonly = true )
-    private File outputDirectory;
+    protected File outputDirectory;
 
     @Parameter( defaultValue = "${project.build.finalName}", required = true, readonly = true )
     private String finalName;
@@ -59,10 +63,20 @@ public abstract class AbstractUbsiMojo extends AbstractMojo {
     @Parameter( defaultValue = "${session}", readonly = true, required = true )
     private MavenSession session;
 
+    @Parameter( defaultValue = "${mojoExecution}", readonly = true )
+    private MojoExecution mojoExecution;
+
     @Component( hint = "default" )
     private DependencyGraphBuilder dependencyGraphBuilder;
 
     private DependencyNode rootNode;    // 依赖树的根节点
+    private DependencyIndex index;      // 依赖树的索引
+    private Map<String, Boolean> sysLibs = new ConcurrentHashMap<>();   // isSysLib()的结果
+    Map<String, File> reactorJars;      // reactor中其他项目打包的JAR文件（聚合部署时使用）
+
+    /* 是否重新解析依赖树（忽略缓存），可以使用 -Dubsi.graph.refresh 来指定 */
+    @Parameter( property = "ubsi.graph.refresh", defaultValue = "false" )
+    private boolean graphRefresh;
 
     /* 获得项目打包后的JAR文件名 */
     private String getJarFileName() {
@@ -135,6 +149,11 @@ public abstract class AbstractUbsiMojo extends AbstractMojo {
                     useProjectJar = true;
             }
         }
+    }
+
+    /** 预处理 */
+    protected void prepare() throws MojoExecutionException {
+        exclusion();
         if ( services.isEmpty() )
             throw new MojoExecutionException("valid service or filter not found, please set <configuration> for ubsi-maven-plugin, eg:\n" +
                     "  <services>\n" +
@@ -158,15 +177,34 @@ public abstract class AbstractUbsiMojo extends AbstractMojo {
                     "  </filters>\n" +
                     "\n" +
                     "You can use \"-Dclass=xxx\" parameter on \"mvn\" command line to specify one service/filter");
+        resolve();
     }
 
-    /** 预处理 */
-    protected void prepare() throws MojoExecutionException {
+    /** reactor中其他项目的预处理，没有需要处理的模块时返回false */
+    boolean prepareProject() throws MojoExecutionException {
         exclusion();
+        if ( services.isEmpty() )
+            return false;
+        resolve();
+        return true;
+    }
 
+    // 获得项目的JAR包及依赖树
+    private void resolve() throws MojoExecutionException {
         if ( useProjectJar )
             jarFile = getProjectJarFile();
         if ( useDependencyJar ) {
+            GraphCache cache = new GraphCache(outputDirectory, getResolutionScope());
+            String key = getGraphKey();
+            if ( graphRefresh || key == null )
+                cache.invalidate();
+            else
+                rootNode = cache.load(key);
+            if ( rootNode != null ) {
+                getLog().info("dependency-tree loaded from " + cache.getName());
+                index = new DependencyIndex(rootNode);
+                return;
+            }
             ProjectBuildingRequest buildingRequest = new DefaultProjectBuildingRequest(session.getProjectBuildingRequest());
             buildingRequest.setProject(project);
             try {
@@ -176,9 +214,89 @@ public abstract class AbstractUbsiMojo extends AbstractMojo {
             }
             if ( rootNode == null )
                 throw new MojoExecutionException("build project dependency-tree error");
+            if ( key != null )
+                cache.save(key, rootNode, this::getJarFile);
+            index = new DependencyIndex(rootNode);
+        }
+    }
+
+    /* 当前goal的依赖解析范围，不同范围的getArtifacts()不同，依赖树分别缓存 */
+    private String getResolutionScope() {
+        return mojoExecution == null ? null : mojoExecution.getMojoDescriptor().getDependencyResolutionRequired();
+    }
+
+    /* 依赖树缓存的键：有效POM、本地仓库位置以及已解析的JAR包（路径、长度、修改时间）的摘要，无法计算时返回null */
+    private String getGraphKey() {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            StringWriter pom = new StringWriter();
+            new MavenXpp3Writer().write(pom, project.getModel());
+            md.update(pom.toString().getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            sb.append(localRepository.getBasedir()).append('\n');
+            List<Artifact> artifacts = new ArrayList<>(project.getArtifacts());
+            artifacts.sort(Comparator.comparing(Artifact::getId));
+            for ( Artifact artifact : artifacts ) {
+                File file = artifact.getFile();
+                sb.append(artifact.getId());
+                if ( file != null )
+                    sb.append('|').append(file.getAbsolutePath()).append('|').append(file.length()).append('|').append(file.lastModified());
+                sb.append('\n');
+            }
+            md.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return DigestCache.toHex(md.digest());
+        } catch (Exception e) {
+            return null;
         }
     }
 
+    /** Maven的构建会话 */
+    protected MavenSession getSession() {
+        return session;
+    }
+
+    /** 当前goal的执行 */
+    protected MojoExecution getMojoExecution() {
+        return mojoExecution;
+    }
+
+    /**
+     * 生成reactor中另一个项目的视图，使用当前插件的参数（-Dclass等）
+     * @param other     reactor中的项目
+     * @param services  该项目POM中的&lt;services&gt;配置
+     * @param filters   该项目POM中的&lt;filters&gt;配置
+     * @param classifier 该项目POM中的&lt;classifier&gt;配置
+     */
+    AbstractUbsiMojo forProject(MavenProject other, List<Config.Service> services, List<Config.Service> filters, String classifier) {
+        AbstractUbsiMojo view = new ProjectView();
+        view.setLog(getLog());
+        view.project = other;
+        view.outputDirectory = new File(other.getBuild().getDirectory());
+        view.finalName = other.getBuild().getFinalName();
+        view.classifier = classifier;
+        view.localRepository = localRepository;
+        view.services = services;
+        view.filters = filters;
+        view.className = className;
+        view.session = session;
+        view.mojoExecution = mojoExecution;
+        view.dependencyGraphBuilder = dependencyGraphBuilder;
+        view.graphRefresh = graphRefresh;
+        return view;
+    }
+
+    // reactor中其他项目的视图，只用来获得模块的JAR包及依赖
+    private static class ProjectView extends AbstractUbsiMojo {
+        @Override
+        public void execute() {
+        }
+    }
+
+    /** 获得项目打包后的JAR文件，不需要时为null */
+    protected File getProjectJar() {
+        return jarFile;
+    }
+
     /** 获得JAR包名字 */
     protected String getArtifactName(Artifact artifact) {
         return artifact.getGroupId() + ":" +
@@ -191,6 +309,8 @@ public abstract class AbstractUbsiMojo extends AbstractMojo {
         File file;
         if ( project.getArtifact().getDependencyConflictId().equals(artifact.getDependencyConflictId()) )
             file = jarFile;
+        else if ( reactorJars != null && reactorJars.containsKey(getArtifactName(artifact)) )
+            file = reactorJars.get(getArtifactName(artifact));
         else
             file = getJarFile(artifact);
         if ( !checkFile(file) )
@@ -209,50 +329,74 @@ public abstract class AbstractUbsiMojo extends AbstractMojo {
 
     /** 是否容器的JAR包 */
     protected boolean isSysLib(String groupId, String artifactId) {
-        if ( isUbsiCore(artifactId) )
-            return true;
-        return ServiceContext.isSysLib(groupId, artifactId, "");
+        return sysLibs.computeIfAbsent(groupId + ":" + artifactId,
+                k -> isUbsiCore(artifactId) || ServiceContext.isSysLib(groupId, artifactId, ""));
     }
 
     /** 获得服务的依赖 */
     protected Set<Artifact> getDependency(Config.Service srv) throws MojoExecutionException {
         if ( srv.artifact == null )
             return project.getArtifacts();
-        DependencyNode node = findNode(rootNode, srv.artifact);
+        DependencyNode node = index.find(srv.artifact);
         if ( node == null )
             throw new MojoExecutionException("artifact not found for \"" + srv.className + "\"");
-        return findDependency(node, new HashSet<>());
+        return index.getDependency(node);
     }
 
     /** 获得服务的JAR包 */
     protected Artifact getArtifact(Config.Service srv) throws MojoExecutionException {
         if ( srv.artifact == null )
             return project.getArtifact();
-        DependencyNode node = findNode(rootNode, srv.artifact);
+        DependencyNode node = index.find(srv.artifact);
         if ( node == null )
             throw new MojoExecutionException("artifact not found for \"" + srv.className + "\"");
         return node.getArtifact();
     }
 
-    // 在依赖树中查找指定的JAR包
-    private DependencyNode findNode(DependencyNode node, String artifact) {
-        if ( node.getArtifact().getArtifactId().equals(artifact) )
-            return node;
-        for ( DependencyNode child : node.getChildren() ) {
-            DependencyNode res = findNode(child, artifact);
-            if ( res != null )
-                return res;
+    /**
+     * 连接运行目录中的后台容器，只重新部署有变化的模块
+     * @return 没有可用的后台容器时返回false
+     */
+    protected boolean attachDaemon(File dir) throws MojoExecutionException {
+        Daemon daemon = Daemon.load(dir);
+        if ( daemon == null )
+            return false;
+        ChunkUploader uploader = new ChunkUploader(4, 2, ChunkUploader.CHUNK_SIZE, true);
+        DigestCache digestCache = new DigestCache(outputDirectory);
+        Deployer deployer = new Deployer(this, uploader, new Compression(0), digestCache);
+        Map<String, Exception> errors = new LinkedHashMap<>();
+        try {
+            Context.startup(".");
+            Remote remote = new Remote("localhost", daemon.port);
+            try {
+                remote.call("getRuntime");
+            } catch (Exception e) {
+                getLog().warn("daemon container on port " + daemon.port + " not available, " + e);
+                Daemon.delete(dir);
+                return false;
+            }
+            getLog().info("====== attach to ubsi-container on port " + daemon.port + (daemon.pid > 0 ? ", pid " + daemon.pid : "") + " ======");
+            List<Deployer.Task> tasks = new ArrayList<>();
+            for ( Config.Service srv : services )
+                tasks.add(deployer.getTask(srv));
+            List<String> swapped = daemon.swap(remote, deployer, tasks, errors);
+            daemon.save(dir);
+            getLog().info("====== " + (swapped.isEmpty() ? "all modules unchanged" : "swapped " + swapped) + " ======");
+        } catch (MojoExecutionException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new MojoExecutionException("attach daemon container error, " + e);
+        } finally {
+            uploader.shutdown();
+            try { Context.shutdown(); } catch (Exception e) {}
+            digestCache.save();
         }
-        return null;
-    }
-    // 在依赖树中添加所有子节点
-    private Set<Artifact> findDependency(DependencyNode node, Set<Artifact> res) {
-        if ( res == null )
-            res = new HashSet<>();
-        for ( DependencyNode child : node.getChildren() ) {
-            res.add(child.getArtifact());
-            findDependency(child, res);
+        if ( !errors.isEmpty() ) {
+            for ( Map.Entry<String, Exception> entry : errors.entrySet() )
+                getLog().error("deploy \"" + entry.getKey() + "\" failure, " + entry.getValue());
+            throw new MojoExecutionException("deploy error, " + errors.size() + " module(s) failed: " + errors.keySet());
         }
-        return res;
+        return true;
     }
+
 }
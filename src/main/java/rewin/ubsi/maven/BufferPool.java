@@ -0,0 +1,38 @@
+package rewin.ubsi.maven;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 上传数据块的缓冲区池，按长度复用，池中保留的总字节数有上限
+ */
+class BufferPool {
+
+    private long limit;         // 池中保留的最大字节数
+    private long pooled = 0;    // 池中当前的字节数
+    private Map<Integer, Deque<byte[]>> buffers = new HashMap<>();
+
+    BufferPool(long limit) {
+        this.limit = limit;
+    }
+
+    /** 获得指定长度的缓冲区 */
+    synchronized byte[] acquire(int size) {
+        Deque<byte[]> deque = buffers.get(size);
+        if ( deque != null && !deque.isEmpty() ) {
+            pooled -= size;
+            return deque.poll();
+        }
+        return new byte[size];
+    }
+
+    /** 归还缓冲区，超过上限时丢弃 */
+    synchronized void release(byte[] buf) {
+        if ( buf == null || pooled + buf.length > limit )
+            return;
+        buffers.computeIfAbsent(buf.length, k -> new ArrayDeque<>()).push(buf);
+        pooled += buf.length;
+    }
+}
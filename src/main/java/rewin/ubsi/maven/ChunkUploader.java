@@ -0,0 +1,182 @@
+package rewin.ubsi.maven;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.*;
+
+/**
+ * 文件分块上传，同时最多有window个请求在途，失败的块单独重试，按顺序确认完成
+ */
+class ChunkUploader {
+
+    final static int CHUNK_SIZE = 1024*1024;        // 缺省的块大小
+    final static int MIN_CHUNK = 64*1024;           // 最小的块大小
+    final static int MAX_CHUNK = 8*1024*1024;       // 最大的块大小
+    final static long MAP_THRESHOLD = 4*1024*1024;  // 超过这个长度的文件使用内存映射读取
+    final static long MAP_SIZE = 64*1024*1024;      // 每次映射的文件区域
+
+    final static long MAX_BACKOFF = 10_000;         // 重试的最大等待时间（毫秒）
+
+    final static long FAST_NANOS = 250_000_000L;    // 一块的发送时间低于这个值时增大块
+    final static long SLOW_NANOS = 1000_000_000L;   // 一块的发送时间高于这个值时减小块
+
+    /** 发送一个数据块 */
+    interface Sender {
+        void send(long offset, byte[] data) throws Exception;
+    }
+
+    private int window;             // 在途请求数量
+    int retry;                      // 每块的重试次数
+    private boolean adaptive;       // 是否根据发送速度调整块大小
+    private volatile int chunkSize; // 当前的块大小
+    private BufferPool buffers;     // 复用的缓冲区
+    private ExecutorService pool;   // 发送线程
+
+    long backoff = 200;             // 第一次重试前的等待时间（毫秒），之后每次加倍
+
+    ChunkUploader(int window, int retry, int chunkSize, boolean adaptive) {
+        this.window = Math.max(1, window);
+        this.retry = Math.max(0, retry);
+        this.adaptive = adaptive;
+        // 块大小取2的整数次幂，调整后的缓冲区仍然可以复用
+        this.chunkSize = Integer.highestOneBit(Math.min(MAX_CHUNK, Math.max(MIN_CHUNK, chunkSize)));
+        this.buffers = new BufferPool((long)(this.window + 1) * (adaptive ? MAX_CHUNK : this.chunkSize));
+        if ( this.window > 1 )
+            pool = Executors.newFixedThreadPool(this.window, r -> {
+                Thread t = new Thread(r, "ubsi-upload");
+                t.setDaemon(true);
+                return t;
+            });
+    }
+
+    /** 上传文件 */
+    void upload(File file, Sender sender) throws Exception {
+        upload(file, sender, 0);
+    }
+
+    /** 从start处继续上传文件 */
+    void upload(File file, Sender sender, long start) throws Exception {
+        Deque<Future<?>> pending = new ArrayDeque<>();
+        Telemetry.Phase phase = Telemetry.current();    // 发送线程的请求计入当前阶段
+        try (Source source = new Source(file)) {
+            long offset = start;
+            while ( offset < source.length ) {
+                int size = chunkSize;
+                boolean pooled = size <= source.length - offset;    // 最后的不足一块的数据不放入缓冲区池
+                byte[] buf = pooled ? buffers.acquire(size) : new byte[(int)(source.length - offset)];
+                source.read(offset, buf);
+                if ( offset == start || pool == null )
+                    send(sender, offset, buf, pooled);      // 第一块同步发送，容器收到offset为0的数据时会创建文件
+                else {
+                    if ( pending.size() >= window )
+                        complete(pending.poll());
+                    final long pos = offset;
+                    pending.add(pool.submit(() -> Telemetry.with(phase, () -> { send(sender, pos, buf, pooled); return null; })));
+                }
+                offset += buf.length;
+            }
+            while ( !pending.isEmpty() )
+                complete(pending.poll());
+        } finally {
+            for ( Future<?> f : pending )
+                f.cancel(true);
+        }
+    }
+
+    /** 关闭发送线程 */
+    void shutdown() {
+        if ( pool != null )
+            pool.shutdownNow();
+    }
+
+    // 等待一个数据块发送完成
+    private void complete(Future<?> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            Throwable t = e.getCause();
+            if ( t instanceof Exception )
+                throw (Exception)t;
+            throw e;
+        }
+    }
+
+    /** 第retries次重试前的等待时间：指数增长，不超过MAX_BACKOFF */
+    long getBackoff(int retries) {
+        return Math.min(MAX_BACKOFF, backoff << Math.min(retries, 16));
+    }
+
+    // 发送一个数据块，失败后等待并重试，发送完成后归还从池中获得的缓冲区
+    private void send(Sender sender, long offset, byte[] data, boolean pooled) throws Exception {
+        for ( int i = 0; ; i ++ ) {
+            try {
+                long t = System.nanoTime();
+                sender.send(offset, data);
+                adapt(data.length, System.nanoTime() - t);
+                if ( pooled )
+                    buffers.release(data);
+                return;
+            } catch (Exception e) {
+                if ( i >= retry )
+                    throw e;
+                Thread.sleep(getBackoff(i));
+            }
+        }
+    }
+
+    // 根据发送一块的时间调整块大小
+    private synchronized void adapt(int size, long nanos) {
+        if ( !adaptive || size != chunkSize )
+            return;
+        if ( nanos < FAST_NANOS && chunkSize < MAX_CHUNK )
+            chunkSize <<= 1;
+        else if ( nanos > SLOW_NANOS && chunkSize > MIN_CHUNK )
+            chunkSize >>= 1;
+    }
+
+    /** 文件的读取：小文件直接按位置读取，大文件分段映射到内存 */
+    static class Source implements Closeable {
+
+        final long length;
+        private FileChannel channel;
+        private MappedByteBuffer map;   // 当前映射的区域
+        private long mapStart = 0;
+        private long mapEnd = 0;
+
+        Source(File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            length = channel.size();
+        }
+
+        /** 从offset处读满buf */
+        void read(long offset, byte[] buf) throws IOException {
+            if ( length <= MAP_THRESHOLD ) {
+                ByteBuffer bb = ByteBuffer.wrap(buf);
+                while ( bb.hasRemaining() )
+                    if ( channel.read(bb, offset + bb.position()) < 0 )
+                        throw new IOException("unexpected end of file");
+                return;
+            }
+            if ( map == null || offset < mapStart || offset + buf.length > mapEnd ) {
+                mapStart = offset;
+                mapEnd = Math.min(length, offset + Math.max(MAP_SIZE, buf.length));
+                map = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+            }
+            map.position((int)(offset - mapStart));
+            map.get(buf);
+        }
+
+        @Override
+        public void close() throws IOException {
+            map = null;
+            channel.close();
+        }
+    }
+}
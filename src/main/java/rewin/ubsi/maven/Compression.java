@@ -0,0 +1,107 @@
+package rewin.ubsi.maven;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+/**
+ * 上传数据块的压缩，同时统计上传的原始字节数和实际发送的字节数
+ */
+class Compression {
+
+    final static double MIN_SAVING = 0.1;       // 压缩后至少减少10%才发送压缩数据
+
+    /* 已经压缩过的文件类型，不再压缩 */
+    final static Set<String> COMPRESSED = new HashSet<>(Arrays.asList(
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "rar", "zst", "lz4",
+            "png", "jpg", "jpeg", "gif", "webp", "ico",
+            "mp3", "mp4", "avi", "mov", "webm", "ogg",
+            "woff", "woff2", "pdf"
+    ));
+
+    /** 发送压缩后的数据块 */
+    interface DeflatedSender {
+        void send(long offset, byte[] data, int rawLength) throws Exception;
+    }
+
+    private int level;      // 压缩级别，0表示不压缩
+
+    AtomicLong rawBytes = new AtomicLong();     // 原始字节数
+    AtomicLong wireBytes = new AtomicLong();    // 实际发送的字节数
+
+    Compression(int level) {
+        this.level = Math.min(Deflater.BEST_COMPRESSION, Math.max(0, level));
+    }
+
+    /** 是否已经压缩过的文件 */
+    static boolean isCompressed(File file) {
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        return index >= 0 && COMPRESSED.contains(name.substring(index + 1).toLowerCase());
+    }
+
+    /**
+     * 包装文件的发送：
+     *  - enabled为false（容器不支持）、不压缩或者已经压缩过的文件，直接发送原始数据
+     *  - 发送的第一块（续传时为续传位置的那一块）压缩效果不明显时，这个文件的后续数据块也不再压缩，
+     *    第一块由ChunkUploader同步发送，之后的数据块可能在发送线程中并行发送
+     */
+    ChunkUploader.Sender wrap(File file, boolean enabled, ChunkUploader.Sender raw, DeflatedSender deflated) {
+        if ( !enabled || level == 0 || isCompressed(file) )
+            return (offset, data) -> {
+                raw.send(offset, data);
+                count(data.length, data.length);
+            };
+        AtomicBoolean first = new AtomicBoolean(true);          // 是否还没有发送过数据块
+        AtomicBoolean worthwhile = new AtomicBoolean(true);     // 是否值得压缩
+        return (offset, data) -> {
+            boolean deciding = first.compareAndSet(true, false);
+            byte[] zdata = worthwhile.get() ? deflate(data) : null;
+            if ( zdata == null ) {
+                if ( deciding )
+                    worthwhile.set(false);
+                raw.send(offset, data);
+                count(data.length, data.length);
+            } else {
+                deflated.send(offset, zdata, data.length);
+                count(data.length, zdata.length);
+            }
+        };
+    }
+
+    /** 压缩比（发送字节数/原始字节数） */
+    double getRatio() {
+        long raw = rawBytes.get();
+        return raw == 0 ? 1 : (double)wireBytes.get() / raw;
+    }
+
+    // 统计
+    private void count(long raw, long wire) {
+        rawBytes.addAndGet(raw);
+        wireBytes.addAndGet(wire);
+    }
+
+    // 压缩数据，效果不明显时返回null
+    private byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            int limit = (int)(data.length * (1 - MIN_SAVING));
+            byte[] buf = new byte[Math.max(limit, 64)];
+            int len = 0;
+            while ( !deflater.finished() ) {
+                len += deflater.deflate(buf, len, buf.length - len);
+                if ( len >= limit && !deflater.finished() )
+                    return null;
+            }
+            return len >= limit ? null : Arrays.copyOf(buf, len);
+        } finally {
+            deflater.end();
+        }
+    }
+}
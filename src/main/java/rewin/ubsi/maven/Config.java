@@ -5,7 +5,7 @@ public class Config {
 
     /** 过滤器的参数 */
     public static class Filter {
-        public String artifact;             // 依赖项的ArtifactId
+        public String artifact;             // 依赖项的ArtifactId，或者"groupId:artifactId"
         public String className;            // 模块的类名
         public String configJson;           // 模块配置
         public String resourcePath;         // 模块的资源文件路径
@@ -17,4 +17,12 @@ public class Config {
         public String name;                 // 服务名，不能为空
     }
 
+    /** 压力测试的请求模板 */
+    public static class LoadTest {
+        public String service;              // 服务名，不能为空
+        public String entry;                // 接口名，不能为空
+        public String paramsJson;           // 请求参数（JSON数组），可以使用${seq}、${worker}、${random}
+        public int weight = 1;              // 多个模板时的请求比例
+    }
+
 }
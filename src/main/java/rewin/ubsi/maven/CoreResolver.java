@@ -0,0 +1,69 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * 容器运行时JAR包的选择：相同的groupId:artifactId只保留最高版本（按Maven的版本规则比较），
+ * UBSI核心包（rewin.ubsi.core/ubsi-core-ce）视为同一个，版本相同时优先使用rewin.ubsi.core
+ */
+class CoreResolver {
+
+    private final static String UBSI_CORE = ":ubsi-core";     // UBSI核心包的键
+
+    private Predicate<String> isUbsiCore;       // 是否UBSI核心包（参数为artifactId）
+    private Map<String, Artifact> selected = new LinkedHashMap<>();         // 选中的JAR包
+    private Map<String, Set<String>> candidates = new LinkedHashMap<>();    // 出现过的JAR包
+
+    CoreResolver(Predicate<String> isUbsiCore) {
+        this.isUbsiCore = isUbsiCore;
+    }
+
+    /** 添加一个JAR包 */
+    void add(Artifact artifact) {
+        boolean core = isUbsiCore.test(artifact.getArtifactId());
+        String key = core ? UBSI_CORE : artifact.getGroupId() + ":" + artifact.getArtifactId();
+        candidates.computeIfAbsent(key, k -> new LinkedHashSet<>()).add(getName(artifact));
+        Artifact jar = selected.get(key);
+        if ( jar == null || isPreferred(artifact, jar, core) )
+            selected.put(key, artifact);
+    }
+
+    /** 选中的JAR包 */
+    Collection<Artifact> getArtifacts() {
+        return selected.values();
+    }
+
+    /** 版本冲突的说明 */
+    List<String> getConflicts() {
+        List<String> res = new ArrayList<>();
+        for ( Map.Entry<String, Set<String>> entry : candidates.entrySet() ) {
+            if ( entry.getValue().size() < 2 )
+                continue;
+            Artifact jar = selected.get(entry.getKey());
+            List<String> omitted = new ArrayList<>(entry.getValue());
+            omitted.remove(getName(jar));
+            res.add(getName(jar) + " selected, omitted " + omitted +
+                    (UBSI_CORE.equals(entry.getKey()) ? " (ubsi-core: highest version, rewin.ubsi.core preferred)" : " (highest version)"));
+        }
+        return res;
+    }
+
+    // artifact是否优先于jar
+    private boolean isPreferred(Artifact artifact, Artifact jar, boolean core) {
+        int compare = new ComparableVersion(artifact.getVersion()).compareTo(new ComparableVersion(jar.getVersion()));
+        if ( compare != 0 || !core )
+            return compare > 0;
+        if ( artifact.getArtifactId().equals(jar.getArtifactId()) )
+            return false;
+        return !jar.getArtifactId().contains("rewin");
+    }
+
+    // JAR包的名字
+    private String getName(Artifact artifact) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
+    }
+}
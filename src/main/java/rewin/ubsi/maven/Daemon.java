@@ -0,0 +1,191 @@
+package rewin.ubsi.maven;
+
+import rewin.ubsi.common.Codec;
+import rewin.ubsi.container.Info;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.util.*;
+
+/**
+ * 后台运行的容器：运行目录中的ubsi-container.daemon记录进程号、进程的启动时间、监听端口及已部署模块的指纹
+ */
+class Daemon {
+
+    final static String DAEMON_FILE = "ubsi-container.daemon";
+
+    long pid = -1;          // 容器的进程号，-1表示未知
+    String started;         // 容器进程的启动时间（Java 9+），用来判断进程号是否已经被其他进程使用，null表示未知
+    int port;               // 容器的监听端口
+    Map<String, String> modules = new TreeMap<>();      // 已部署的模块：名字 -> 指纹
+
+    /** 读取运行目录中的后台容器记录，没有时返回null */
+    static Daemon load(File dir) {
+        File file = new File(dir, DAEMON_FILE);
+        if ( !file.isFile() )
+            return null;
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+            Daemon daemon = new Daemon();
+            daemon.pid = Long.parseLong(props.getProperty("pid", "-1"));
+            daemon.started = props.getProperty("started");
+            daemon.port = Integer.parseInt(props.getProperty("port"));
+            for ( String key : props.stringPropertyNames() )
+                if ( key.startsWith("module.") )
+                    daemon.modules.put(key.substring(7), props.getProperty(key));
+            return daemon;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** 保存后台容器记录 */
+    void save(File dir) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("pid", "" + pid);
+        if ( started != null )
+            props.setProperty("started", started);
+        props.setProperty("port", "" + port);
+        for ( Map.Entry<String, String> entry : modules.entrySet() )
+            props.setProperty("module." + entry.getKey(), entry.getValue());
+        try (OutputStream out = new FileOutputStream(new File(dir, DAEMON_FILE))) {
+            props.store(out, "ubsi-container daemon");
+        }
+    }
+
+    /** 删除后台容器记录 */
+    static void delete(File dir) {
+        new File(dir, DAEMON_FILE).delete();
+    }
+
+    /** 获得进程号（Java 9+），不支持时返回-1 */
+    static long getPid(Process process) {
+        try {
+            return (Long)Process.class.getMethod("pid").invoke(process);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    // 获得进程的ProcessHandle（Java 9+），进程不存在时返回null
+    private Object getHandle() throws Exception {
+        Class<?> cls = Class.forName("java.lang.ProcessHandle");
+        Optional<?> handle = (Optional<?>)cls.getMethod("of", long.class).invoke(null, pid);
+        return handle.isPresent() ? handle.get() : null;
+    }
+
+    /** 获得进程的启动时间（Java 9+），不支持或进程不存在时返回null */
+    static String getStartTime(long pid) {
+        if ( pid <= 0 )
+            return null;
+        try {
+            Class<?> cls = Class.forName("java.lang.ProcessHandle");
+            Optional<?> handle = (Optional<?>)cls.getMethod("of", long.class).invoke(null, pid);
+            if ( !handle.isPresent() )
+                return null;
+            Object info = cls.getMethod("info").invoke(handle.get());
+            Optional<?> start = (Optional<?>)Class.forName("java.lang.ProcessHandle$Info").getMethod("startInstant").invoke(info);
+            return start.isPresent() ? start.get().toString() : null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** 进程号是否仍然是记录的容器进程：true/false，无法判断时返回null */
+    Boolean isSameProcess() {
+        if ( started == null )
+            return null;
+        String now = getStartTime(pid);
+        return now == null ? null : now.equals(started);
+    }
+
+    // 是否Windows系统
+    private static boolean isWindows() {
+        return System.getProperty("os.name", "").toLowerCase().startsWith("windows");
+    }
+
+    /** 容器进程是否存在，无法判断时返回null */
+    Boolean isRunning() {
+        if ( pid <= 0 )
+            return null;
+        try {
+            Object handle = getHandle();
+            if ( handle == null )
+                return false;
+            Method method = Class.forName("java.lang.ProcessHandle").getMethod("isAlive");
+            return (Boolean)method.invoke(handle);
+        } catch (ClassNotFoundException e) {
+            if ( isWindows() )
+                return null;
+            try {
+                return new ProcessBuilder("kill", "-0", "" + pid).start().waitFor() == 0;
+            } catch (Exception ee) {
+                return null;
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * 结束容器进程
+     * @param force     是否强制结束，否则发送正常退出的信号
+     * @return 是否发送成功
+     */
+    boolean terminate(boolean force) {
+        if ( pid <= 0 )
+            return false;
+        try {
+            Object handle = getHandle();
+            if ( handle == null )
+                return false;
+            Method method = Class.forName("java.lang.ProcessHandle").getMethod(force ? "destroyForcibly" : "destroy");
+            return (Boolean)method.invoke(handle);
+        } catch (ClassNotFoundException e) {
+            try {
+                ProcessBuilder builder = isWindows()
+                        ? (force ? new ProcessBuilder("taskkill", "/F", "/PID", "" + pid) : new ProcessBuilder("taskkill", "/PID", "" + pid))
+                        : new ProcessBuilder("kill", force ? "-KILL" : "-TERM", "" + pid);
+                return builder.start().waitFor() == 0;
+            } catch (Exception ee) {
+                return false;
+            }
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * 只重新部署指纹有变化或者没有运行的模块
+     * @param errors    部署失败的模块
+     * @return 重新部署的模块
+     */
+    List<String> swap(Remote remote, Deployer deployer, List<Deployer.Task> tasks, Map<String, Exception> errors) throws Exception {
+        Info.Runtime info = Codec.toType(remote.call("getRuntime"), Info.Runtime.class);
+        Map<Deployer.Task, String> changed = new LinkedHashMap<>();
+        for ( Deployer.Task task : tasks ) {
+            String fp = deployer.fingerprint(task);
+            Integer status = Deployer.getStatus(info, task.srv);
+            if ( fp.equals(modules.get(task.mname)) && status != null && status == 1 )
+                deployer.info(remote, task, "\"" + task.mname + "\" unchanged");
+            else
+                changed.put(task, fp);
+        }
+        List<String> swapped = new ArrayList<>();
+        for ( Map.Entry<Deployer.Task, String> entry : changed.entrySet() ) {
+            Deployer.Task task = entry.getKey();
+            task.force = true;      // 容器中的JAR包可能不是上传的，无法比较摘要
+            try {
+                deployer.uninstall(remote, task, info);
+                deployer.deploy(remote, task);
+                modules.put(task.mname, entry.getValue());
+                swapped.add(task.mname);
+            } catch (Exception e) {
+                modules.remove(task.mname);
+                errors.put(task.mname, e);
+            }
+        }
+        return swapped;
+    }
+}
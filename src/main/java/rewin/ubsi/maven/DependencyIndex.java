@@ -0,0 +1,54 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+
+import java.util.*;
+
+/**
+ * 依赖树的索引
+ *  - artifactId及"groupId:artifactId"到节点（先序遍历中第一个出现的节点）
+ *  - 节点的全部依赖，第一次获取时计算并缓存
+ */
+class DependencyIndex {
+
+    private Map<String, DependencyNode> byId = new HashMap<>();
+    private Map<String, DependencyNode> byKey = new HashMap<>();
+    private Map<DependencyNode, Set<Artifact>> closures = new IdentityHashMap<>();
+
+    DependencyIndex(DependencyNode root) {
+        Deque<DependencyNode> stack = new ArrayDeque<>();
+        stack.push(root);
+        while ( !stack.isEmpty() ) {
+            DependencyNode node = stack.pop();
+            Artifact artifact = node.getArtifact();
+            byId.putIfAbsent(artifact.getArtifactId(), node);
+            byKey.putIfAbsent(artifact.getGroupId() + ":" + artifact.getArtifactId(), node);
+            List<DependencyNode> children = node.getChildren();
+            for ( int i = children.size() - 1; i >= 0; i -- )
+                stack.push(children.get(i));
+        }
+    }
+
+    /** 查找节点，artifact为artifactId或者"groupId:artifactId" */
+    DependencyNode find(String artifact) {
+        return artifact.indexOf(':') > 0 ? byKey.get(artifact) : byId.get(artifact);
+    }
+
+    /** 获得节点的全部依赖（不可修改） */
+    synchronized Set<Artifact> getDependency(DependencyNode node) {
+        Set<Artifact> res = closures.get(node);
+        if ( res == null ) {
+            res = new HashSet<>();
+            Deque<DependencyNode> stack = new ArrayDeque<>(node.getChildren());
+            while ( !stack.isEmpty() ) {
+                DependencyNode child = stack.pop();
+                res.add(child.getArtifact());
+                stack.addAll(child.getChildren());
+            }
+            res = Collections.unmodifiableSet(res);
+            closures.put(node, res);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,136 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.PluginParameterExpressionEvaluator;
+import org.apache.maven.plugins.annotations.*;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluator;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+import rewin.ubsi.common.Util;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * 聚合部署reactor中所有项目的微服务/过滤器：mvn ubsi:deploy-all -Dcontainer={host#port,...}
+ *
+ * 只执行一次package，使用一个容器会话部署所有项目的模块，共用的JAR包只上传一次，按依赖关系的顺序安装
+ *
+ * 各项目的配置与ubsi:deploy一致：使用与当前执行相同id（缺省为default-cli）的&lt;execution&gt;中合并后的配置，
+ * 没有时使用插件级的配置，${...}按该项目求值
+ */
+@Mojo(
+        name = "deploy-all",
+        aggregator = true,
+        requiresDependencyResolution = ResolutionScope.RUNTIME
+)
+@Execute(phase = LifecyclePhase.PACKAGE)
+public class DeployAllMojo extends DeployMojo {
+
+    private final static String PLUGIN_KEY = "com.rewin:ubsi-maven-plugin";
+
+    /* reactor中配置了UBSI插件的项目，按构建顺序 */
+    @Override
+    protected List<AbstractUbsiMojo> getProjects() throws MojoExecutionException {
+        List<AbstractUbsiMojo> views = new ArrayList<>();
+        Map<String, File> jars = new HashMap<>();       // reactor中各项目打包的JAR文件
+        String executionId = getMojoExecution() == null ? "default-cli" : getMojoExecution().getExecutionId();
+        for ( MavenProject other : getSession().getProjects() ) {
+            Xpp3Dom cfg = getConfiguration(other.getPlugin(PLUGIN_KEY), executionId);
+            ExpressionEvaluator evaluator = getEvaluator(other);
+            String classifier = cfg == null ? null : getValue(evaluator, cfg, "classifier");
+            File jar = getReactorJar(other, classifier);
+            if ( jar != null )
+                jars.put(getArtifactName(other.getArtifact()), jar);
+            if ( cfg == null )
+                continue;
+            AbstractUbsiMojo view = forProject(other, getServices(other, evaluator, cfg, "services"),
+                    getServices(other, evaluator, cfg, "filters"), classifier);
+            if ( view.prepareProject() )
+                views.add(view);
+        }
+        if ( views.isEmpty() )
+            throw new MojoExecutionException("valid service or filter not found in reactor projects");
+
+        Map<String, MavenProject> names = new HashMap<>();
+        for ( AbstractUbsiMojo view : views ) {
+            view.reactorJars = jars;
+            for ( Config.Service srv : view.services ) {
+                String mname = srv.name == null ? srv.className : srv.name;
+                MavenProject old = names.put(mname, view.project);
+                if ( old != null )
+                    throw new MojoExecutionException("duplicated service/filter \"" + mname + "\" in " +
+                            old.getArtifactId() + " and " + view.project.getArtifactId());
+            }
+            getLog().info(view.project.getArtifactId() + ": " + view.services.size() + " service/filter(s)");
+        }
+        return views;
+    }
+
+    // 项目打包的JAR文件，没有时返回null
+    private File getReactorJar(MavenProject other, String classifier) {
+        String name = other.getBuild().getFinalName() + (Util.checkEmpty(classifier) != null ? "-" + classifier : "") + ".jar";
+        File file = new File(other.getBuild().getDirectory(), name);
+        if ( checkFile(file) )
+            return file;
+        MavenProject exec = other.getExecutionProject();    // package阶段在fork的项目中执行
+        Artifact artifact = (exec != null ? exec : other).getArtifact();
+        file = artifact == null ? null : artifact.getFile();
+        return checkFile(file) && file.getName().endsWith(".jar") ? file : null;
+    }
+
+    // 项目中插件的配置：同id的<execution>的配置（已合并插件级的配置），没有时为插件级的配置
+    private static Xpp3Dom getConfiguration(Plugin plugin, String executionId) {
+        if ( plugin == null )
+            return null;
+        PluginExecution execution = plugin.getExecutionsAsMap().get(executionId);
+        Object cfg = execution != null && execution.getConfiguration() != null ? execution.getConfiguration() : plugin.getConfiguration();
+        return cfg instanceof Xpp3Dom ? (Xpp3Dom)cfg : null;
+    }
+
+    // 按项目求值配置中的${...}，与Maven为该项目配置参数时一致
+    private ExpressionEvaluator getEvaluator(MavenProject other) {
+        MavenSession session = getSession().clone();
+        session.setCurrentProject(other);
+        return new PluginParameterExpressionEvaluator(session, getMojoExecution());
+    }
+
+    // 解析项目POM中的<services>或<filters>，资源目录相对于项目目录
+    private List<Config.Service> getServices(MavenProject other, ExpressionEvaluator evaluator, Xpp3Dom cfg, String tag) throws MojoExecutionException {
+        List<Config.Service> list = new ArrayList<>();
+        Xpp3Dom dom = cfg.getChild(tag);
+        if ( dom == null )
+            return list;
+        for ( Xpp3Dom item : dom.getChildren() ) {
+            Config.Service srv = new Config.Service();
+            srv.artifact = getValue(evaluator, item, "artifact");
+            srv.name = getValue(evaluator, item, "name");
+            srv.className = getValue(evaluator, item, "className");
+            srv.configJson = getValue(evaluator, item, "configJson");
+            srv.resourcePath = getValue(evaluator, item, "resourcePath");
+            if ( srv.resourcePath != null && !new File(srv.resourcePath).isAbsolute() )
+                srv.resourcePath = new File(other.getBasedir(), srv.resourcePath).getPath();
+            srv.exclusion = "true".equalsIgnoreCase(getValue(evaluator, item, "exclusion"));
+            list.add(srv);
+        }
+        return list;
+    }
+
+    // 配置项求值后的值
+    private static String getValue(ExpressionEvaluator evaluator, Xpp3Dom dom, String name) throws MojoExecutionException {
+        Xpp3Dom child = dom.getChild(name);
+        String value = child == null ? null : Util.checkEmpty(child.getValue());
+        if ( value == null )
+            return null;
+        try {
+            Object res = evaluator.evaluate(value);
+            return res == null ? null : Util.checkEmpty(res.toString());
+        } catch (Exception e) {
+            throw new MojoExecutionException("evaluate <" + name + ">" + value + "</" + name + "> error, " + e);
+        }
+    }
+}
@@ -10,14 +10,17 @@ import rewin.ubsi.common.Util;
 import rewin.ubsi.consumer.Context;
 import rewin.ubsi.container.Bootstrap;
 import rewin.ubsi.container.Info;
+import rewin.ubsi.maven.Deployer.Step;
+import rewin.ubsi.maven.Deployer.Task;
 
 import java.io.File;
-import java.io.RandomAccessFile;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
 
 /**
- * 部署微服务/过滤器到指定的容器：mvn ubsi:deploy -Dcontainer={host#port} -Dclass={微服务/过滤器的className}
+ * 部署微服务/过滤器到指定的容器：mvn ubsi:deploy -Dcontainer={host#port,...} -Dclass={微服务/过滤器的className}
  */
 @Mojo(
         name = "deploy",
@@ -26,181 +29,412 @@ import java.util.List;
 @Execute(phase = LifecyclePhase.PACKAGE)
 public class DeployMojo extends AbstractUbsiMojo {
 
-    /* 目标容器配置，可以使用 -Dcontainer={xxx} 来指定 */
+    /* 目标容器配置，多个容器用","分隔，可以使用 -Dcontainer={xxx} 来指定 */
     @Parameter( property = "container", defaultValue = "localhost#7112")
     private String container;
 
-    String host = "localhost";
-    int port = Bootstrap.DEFAULT_PORT;
+    /* 目标容器列表文件，每行一个或多个"host#port"，以"//"开头的行为注释，可以使用 -Dubsi.containerFile={xxx} 来指定 */
+    @Parameter( property = "ubsi.containerFile")
+    private File containerFile;
+
+    /* 滚动部署时每批的容器数量，0表示同时部署所有容器，可以使用 -Dubsi.rolling={xxx} 来指定 */
+    @Parameter( property = "ubsi.rolling", defaultValue = "0")
+    private int rolling;
+
+    /* 滚动部署时允许失败的容器数量，超过后停止部署，可以使用 -Dubsi.maxFailures={xxx} 来指定 */
+    @Parameter( property = "ubsi.maxFailures", defaultValue = "0")
+    private int maxFailures;
+
+    /* 是否比较JAR包的SHA-256摘要，只上传内容有变化的JAR包，可以使用 -Dubsi.digest=false 来关闭 */
+    @Parameter( property = "ubsi.digest", defaultValue = "true")
+    private boolean digest;
+
+    /* 上传文件时同时在途的请求数量，可以使用 -Dubsi.uploadWindow={xxx} 来指定 */
+    @Parameter( property = "ubsi.uploadWindow", defaultValue = "4")
+    private int uploadWindow;
+
+    /* 上传失败时每个数据块的重试次数（也是中断后继续上传的次数），可以使用 -Dubsi.uploadRetry={xxx} 来指定 */
+    @Parameter( property = "ubsi.uploadRetry", defaultValue = "2")
+    private int uploadRetry;
+
+    /* 重试前的等待时间（毫秒），每次重试加倍，可以使用 -Dubsi.uploadBackoff={xxx} 来指定 */
+    @Parameter( property = "ubsi.uploadBackoff", defaultValue = "200")
+    private long uploadBackoff;
+
+    /* 上传文件时每块的初始大小（字节），可以使用 -Dubsi.chunkSize={xxx} 来指定 */
+    @Parameter( property = "ubsi.chunkSize", defaultValue = "1048576")
+    private int chunkSize;
+
+    /* 是否根据发送速度自动调整块大小，可以使用 -Dubsi.chunkAdaptive=false 来关闭 */
+    @Parameter( property = "ubsi.chunkAdaptive", defaultValue = "true")
+    private boolean chunkAdaptive;
+
+    /* 上传数据的压缩级别（1-9，0表示不压缩，需要容器支持deflate），可以使用 -Dubsi.compress={xxx} 来指定 */
+    @Parameter( property = "ubsi.compress", defaultValue = "0")
+    private int compress;
+
+    /* 是否将资源目录中的小文件打包上传（需要容器支持unpackResource，解压后使用deleteResourceFile删除压缩包），可以使用 -Dubsi.resourcePack=true 来指定 */
+    @Parameter( property = "ubsi.resourcePack", defaultValue = "false")
+    private boolean resourcePack;
+
+    /* 打包上传时小文件的长度上限（字节），可以使用 -Dubsi.packThreshold={xxx} 来指定 */
+    @Parameter( property = "ubsi.packThreshold", defaultValue = "262144")
+    private long packThreshold;
+
+    /* 同时部署的模块数量，可以使用 -Dubsi.deployThreads={xxx} 来指定 */
+    @Parameter( property = "ubsi.deployThreads", defaultValue = "1")
+    private int deployThreads;
+
+    /* 只输出部署计划（与容器中的运行状态比较得到的操作），不执行部署，可以使用 -Dubsi.plan 来指定 */
+    @Parameter( property = "ubsi.plan", defaultValue = "false")
+    private boolean plan;
+
+    /* 强制重新部署所有模块（不比较容器中的运行状态），可以使用 -Dubsi.force 来指定 */
+    @Parameter( property = "ubsi.force", defaultValue = "false")
+    private boolean force;
+
+    /* 部署到ubsi:run的后台容器（只重新部署有变化的模块），可以使用 -Dubsi.daemon=true 来指定 */
+    @Parameter( property = "ubsi.daemon", defaultValue = "false")
+    private boolean daemon;
+
+    /* 后台容器的运行目录，可以使用 -Ddir={xxx} 来指定 */
+    @Parameter( property = "dir", defaultValue = "maven-run")
+    private File dir;
+
+    final static String REPORT_FILE = "ubsi-deploy-report.json";     // 部署报告
+
+    List<Remote> nodes = new ArrayList<>();     // 目标容器
+    Deployer deployer;                  // 模块的部署
 
     public void execute() throws MojoExecutionException {
-        System.out.println("\n> mvn ubsi:deploy -Dcontainer={host_name#listener_port} -Dclass={module_className}\n");
+        System.out.println("\n> mvn ubsi:deploy -Dcontainer={host_name#listener_port,...} -Dclass={module_className}\n");
 
-        prepare();
+        Telemetry telemetry = new Telemetry();
+        Telemetry.Phase phase = telemetry.begin(null, "prepare");
+        List<AbstractUbsiMojo> projects;
+        try {
+            projects = getProjects();
+        } finally {
+            phase.close();
+        }
+        if ( daemon ) {
+            if ( projects.size() != 1 || projects.get(0) != this )
+                throw new MojoExecutionException("ubsi.daemon can't be used with aggregate deploy");
+            if ( !attachDaemon(dir) )
+                throw new MojoExecutionException("daemon container not found in \"" + dir + "\", start it by mvn ubsi:run -Dubsi.daemon=true");
+            System.out.println();
+            return;
+        }
+        parseContainers();
+        if ( plan && !digest )
+            throw new MojoExecutionException("ubsi.plan requires ubsi.digest");
 
-        container = Util.checkEmpty(container);
-        if ( container != null ) {
-            int index = container.indexOf("#");
-            if ( index >= 0 && index < container.length() - 1 )
-                try {
-                    port = Integer.parseInt(container.substring(index + 1));
-                } catch (Exception e) {
-                    throw new MojoExecutionException("invalid container's address");
-                }
-            if ( index > 0 )
-                host = container.substring(0, index);
-            else if ( index < 0 && !container.isEmpty() )
-                host = container;
+        ChunkUploader uploader = new ChunkUploader(uploadWindow, uploadRetry, chunkSize, chunkAdaptive);
+        uploader.backoff = uploadBackoff;
+        Compression compression = new Compression(compress);
+        DigestCache digestCache = digest ? new DigestCache(outputDirectory) : null;
+        deployer = new Deployer(this, uploader, compression, digestCache);
+        deployer.strictStart = rolling > 0;     // 滚动部署时必须启动成功
+        deployer.resourcePack = resourcePack;
+        deployer.packThreshold = packThreshold;
+        deployer.nodePrefix = nodes.size() > 1;
+        deployer.modulePrefix = deployThreads > 1;
+        deployer.telemetry = telemetry;
+
+        List<Task> tasks = new ArrayList<>();
+        phase = telemetry.begin(null, "prepare");
+        try {
+            for ( AbstractUbsiMojo source : projects )
+                for ( Config.Service srv : source.services )
+                    tasks.add(deployer.getTask(source, srv));
+        } finally {
+            phase.close();
+        }
+        if ( projects.size() > 1 ) {
+            Set<String> jars = new HashSet<>();
+            for ( Task task : tasks ) {
+                jars.add(getArtifactName(task.main));
+                for ( Artifact artifact : task.depends )
+                    jars.add(getArtifactName(artifact));
+            }
+            getLog().info(tasks.size() + " module(s) from " + projects.size() + " project(s), " + jars.size() + " distinct jar-file(s)");
         }
 
-        getLog().info("====== start deploy, container=\"" + host + "#" + port + "\" ======");
+        getLog().info("====== " + (plan ? "plan" : "start") + " deploy, container=\"" + (nodes.size() == 1 ? nodes.get(0).getAddress() : nodes.toString()) + "\" ======");
+        long startTime = System.nanoTime();
+        Map<String, Exception> errors = Collections.synchronizedMap(new LinkedHashMap<>());
         try {
             Context.startup(".");
-            for ( Config.Service srv : services ) {
-                getLog().info("");
-                getLog().info(">>> deploy " + (srv.name != null ? "service" : "filter") + " \"" + (srv.name != null ? srv.name : srv.className) + "\" >>>");
-                deploy(srv);
+            int batch = rolling > 0 ? rolling : nodes.size();
+            int failed = 0;
+            for ( int i = 0; i < nodes.size(); i += batch ) {
+                List<Remote> group = nodes.subList(i, Math.min(i + batch, nodes.size()));
+                if ( rolling > 0 )
+                    getLog().info("====== rolling deploy " + group + " ======");
+                deployNodes(group, tasks, errors);
+                for ( Remote remote : group )
+                    if ( remote.failed )
+                        failed ++;
+                if ( rolling > 0 && failed > maxFailures && i + batch < nodes.size() ) {
+                    getLog().error("====== " + failed + " container(s) failed, stop rolling deploy, skipped: " +
+                            nodes.subList(i + batch, nodes.size()) + " ======");
+                    break;
+                }
             }
         } catch (Exception e) {
             throw new MojoExecutionException("deploy error, " + e);
         } finally {
+            uploader.shutdown();
             try { Context.shutdown(); } catch (Exception e) {}
+            if ( digestCache != null )
+                digestCache.save();
+            for ( Task task : tasks )
+                if ( task.pack != null )
+                    task.pack.delete();
+            if ( !plan )
+                saveReport();
+        }
+        if ( deployer.skipJars.get() > 0 )
+            getLog().info(deployer.skipJars.get() + " jar-file(s) unchanged, " + deployer.skipBytes.get() + " bytes saved");
+        long raw = compression.rawBytes.get();
+        if ( raw > 0 ) {
+            double seconds = Math.max(1, System.nanoTime() - startTime) / 1e9;
+            getLog().info(String.format("upload %d bytes, %d bytes on the wire (ratio %.1f%%), %.1fs, %.1f KB/s",
+                    raw, compression.wireBytes.get(), compression.getRatio() * 100, seconds, raw / 1024.0 / seconds));
+        }
+        if ( !errors.isEmpty() ) {
+            for ( Map.Entry<String, Exception> entry : errors.entrySet() )
+                getLog().error("deploy \"" + entry.getKey() + "\" failure, " + entry.getValue());
+            throw new MojoExecutionException("deploy error, " + errors.size() + " module(s) failed: " + errors.keySet());
         }
         System.out.println();
     }
 
-    /* 部署一个微服务/过滤器 */
-    void deploy(Config.Service srv) throws Exception {
-        Artifact mainArtifact = getArtifact(srv);
-        // 检查是否需要卸载
-        Context context = Context.request("", "getRuntime", null);
-        Info.Runtime info = Codec.toType(context.direct(host, port), Info.Runtime.class);
-        boolean has = false;
-        if ( srv.name == null && info.filters != null ) {
-            for ( Info.FRuntime fr : info.filters ) {
-                if ( fr.class_name.equals(srv.className) ) {
-                    has = true;
-                    break;
+    /* 需要部署的项目，准备好模块的JAR包及依赖 */
+    protected List<AbstractUbsiMojo> getProjects() throws MojoExecutionException {
+        prepare();
+        return Collections.singletonList(this);
+    }
+
+    /* 保存部署报告，输出每个模块最慢的阶段 */
+    void saveReport() {
+        File file = new File(outputDirectory, REPORT_FILE);
+        try {
+            Telemetry.Report report = deployer.telemetry.save(file);
+            for ( Telemetry.PhaseReport phase : report.phases )
+                getLog().info(String.format("%s: %dms, %d requests",
+                        phase.container == null ? phase.name : phase.container + "/" + phase.name, phase.millis, phase.requests));
+            for ( Telemetry.ModuleReport module : report.modules ) {
+                if ( module.slowest == null )
+                    continue;
+                long slowest = 0;
+                for ( Telemetry.PhaseReport phase : module.phases )
+                    if ( phase.name.equals(module.slowest) )
+                        slowest = phase.millis;
+                getLog().info(String.format("%s: %dms, %d bytes, %d requests, slowest \"%s\" %dms",
+                        nodes.size() > 1 ? module.container + "/" + module.module : module.module,
+                        module.millis, module.bytes, module.requests, module.slowest, slowest));
+            }
+            getLog().info("deploy report saved to " + file);
+        } catch (Exception e) {
+            getLog().warn("save deploy report error, " + e);
+        }
+    }
+
+    /* 解析目标容器 */
+    void parseContainers() throws MojoExecutionException {
+        List<String> list = new ArrayList<>();
+        if ( containerFile != null ) {
+            try {
+                for ( String line : Files.readAllLines(containerFile.toPath(), StandardCharsets.UTF_8) ) {
+                    line = line.trim();
+                    if ( !line.startsWith("//") )
+                        list.addAll(Arrays.asList(line.split("[,\\s]+")));
                 }
+            } catch (Exception e) {
+                throw new MojoExecutionException("read container-file \"" + containerFile + "\" error", e);
             }
+        } else {
+            container = Util.checkEmpty(container);
+            if ( container != null )
+                list.addAll(Arrays.asList(container.split(",")));
         }
-        if ( srv.name != null && info.services.containsKey(srv.name) )
-            has = true;
-        String mname = srv.name == null ? srv.className : srv.name;
-        if ( has ) {
-            getLog().info("\"" + mname + "\" founded, uninstall ...");
-            Integer res = (Integer)Context.request("", "uninstall", mname).direct(host, port);
-            if ( res != null && res != 0 )
-                throw new Exception(getArtifactName(mainArtifact) + " jar-file still in use by other service/filter");
-        }
-
-        // 安装依赖的JAR包
-        List<Object[]> depends = new ArrayList<>();
-        for ( Artifact artifact : getDependency(srv) ) {
-            String gid = artifact.getGroupId();
-            String aid = artifact.getArtifactId();
-            if ( isSysLib(gid, aid) )
+        SessionCache cache = SessionCache.get(getSession());    // reactor中的其他项目可能已经部署到相同的容器
+        Set<String> addresses = new HashSet<>();
+        for ( String address : list ) {
+            address = Util.checkEmpty(address);
+            if ( address == null )
                 continue;
-            String ver = artifact.getVersion();
-            depends.add(new Object[] { gid, aid, ver });
-            installJar(gid, aid, ver, checkArtifact(artifact), null);
-        }
-        // 安装主JAR包
-        String gid = mainArtifact.getGroupId();
-        String aid = mainArtifact.getArtifactId();
-        String ver = mainArtifact.getVersion();
-        installJar(gid, aid, ver, checkArtifact(mainArtifact), depends.toArray());
-
-        uploadResource(mname, srv.resourcePath);
-        getLog().info("register \"" + mname + "\" ...");
+            Remote remote = Remote.parse(address);
+            if ( addresses.add(remote.getAddress()) )
+                nodes.add(cache.getRemote(remote));
+        }
+        if ( nodes.isEmpty() )
+            nodes.add(cache.getRemote(new Remote("localhost", Bootstrap.DEFAULT_PORT)));
+    }
+
+    // 错误的键值
+    private String errorKey(Remote remote, String mname) {
+        return nodes.size() > 1 ? remote.getAddress() + "/" + mname : mname;
+    }
+
+    /* 同时部署到一批容器 */
+    void deployNodes(List<Remote> group, List<Task> tasks, Map<String, Exception> errors) throws Exception {
+        if ( group.size() == 1 ) {
+            deployNode(group.get(0), tasks, errors);
+            return;
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(group.size());
         try {
-            Context.request("", "install", srv.name, srv.className, new Object[]{gid, aid, ver}).direct(host, port);
-        } catch (Exception e) {
-            try {
-                Context.request("", "unregisterJar", gid, aid, ver).direct(host, port);
-            } catch (Exception ee) {
-            }
-            throw e;
+            List<Future<?>> futures = new ArrayList<>();
+            for ( Remote remote : group )
+                futures.add(pool.submit(() -> deployNode(remote, tasks, errors)));
+            for ( Future<?> future : futures )
+                future.get();
+        } finally {
+            pool.shutdownNow();
         }
+    }
 
-        setConfig(mname, srv.configJson);
-        getLog().info("start \"" + mname + "\" ...");
-        boolean res_start = (Boolean)Context.request("", "setStatus", mname, 1).direct(host, port);
-        if ( !res_start )
-            getLog().warn("start \"" + mname + "\" failure!");
-        else
-            getLog().info("start \"" + mname + "\" ok, deploy over.");
+    /* 部署到一个容器 */
+    void deployNode(Remote remote, List<Task> tasks, Map<String, Exception> errors) {
+        try {
+            deployAll(remote, tasks, errors);
+        } catch (Exception e) {
+            remote.failed = true;
+            errors.put(remote.getAddress(), e);
+        }
     }
 
-    /* 安装一个JAR包 */
-    void installJar(String gid, String aid, String ver, File file, Object[] depends) throws Exception {
-        int installed = (Integer)Context.request("", "hasJar", gid, aid, ver).direct(host, port);
-        if ( installed > 0 )
+    /* 部署所有的模块：比较运行状态得到部署步骤，先依次卸载需要重新安装的模块，再按依赖关系分组并行执行 */
+    void deployAll(Remote remote, List<Task> tasks, Map<String, Exception> errors) throws Exception {
+        Info.Runtime info;
+        Telemetry.Phase phase = deployer.telemetry.begin(remote, "runtime");
+        try {
+            info = Codec.toType(remote.call("getRuntime"), Info.Runtime.class);
+        } finally {
+            phase.close();
+        }
+        Map<Task, Step> steps = new LinkedHashMap<>();
+        for ( Task task : tasks )
+            steps.put(task, deployer.diff(remote, task, info, !force));
+        if ( plan ) {
+            getLog().info("====== plan for " + remote.getAddress() + " ======");
+            for ( Step step : steps.values() )
+                getLog().info("  " + (step.isEmpty() ? "= " : step.install ? (step.status == null ? "+ " : "! ") : "~ ") + step);
             return;
-        // 上传JAR包
-        String fname = file.getName();
-        getLog().info("install " + fname + " ...");
-        byte[] buf = null;
-        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-            long left = raf.length();
-            for ( long offset = 0; offset < left; offset += 1024*1024 ) {
-                if ( left - offset <= 1024*1024 )
-                    buf = new byte[(int)(left - offset)];
-                else if ( buf == null )
-                    buf = new byte[1024*1024];
-                raf.seek(offset);
-                raf.readFully(buf);
-                Context.request("", "uploadJar", fname, offset, buf).direct(host, port);
+        }
+
+        List<Task> ready = new ArrayList<>();
+        List<Task> reinstall = new ArrayList<>();
+        for ( Step step : steps.values() ) {
+            Task task = step.task;
+            if ( step.isEmpty() ) {
+                deployer.info(remote, task, "\"" + task.mname + "\" unchanged");
+                continue;
             }
+            if ( step.install )
+                reinstall.add(task);
+            ready.add(task);
+        }
+        for ( Map.Entry<Task, Exception> entry : deployer.uninstall(remote, reinstall, info).entrySet() ) {
+            Task task = entry.getKey();
+            ready.remove(task);
+            remote.failed = true;
+            errors.put(errorKey(remote, task.mname), entry.getValue());
+            deployer.telemetry.error(remote, task.mname, entry.getValue());
         }
-        // 注册JAR包
-        if ( installed < 0 )
-            Context.request("", "registerJar", gid, aid, ver, fname, depends).direct(host, port);
-    }
 
-    /* 上传资源文件 */
-    void uploadResource(String mname, String path) throws Exception {
-        path = Util.checkEmpty(path);
-        if ( path == null )
+        List<List<Task>> chains = getChains(ready);
+        int threads = Math.min(Math.max(1, deployThreads), chains.size());
+        if ( threads <= 1 ) {
+            for ( List<Task> chain : chains )
+                deployChain(remote, chain, steps, errors);
             return;
-        File dir = new File(path);
-        if ( !dir.exists() || !dir.isDirectory() )
-            throw new Exception("invalid resource path \"" + path + "\".");
-        getLog().info("upload resource files ...");
-        uploadDir(dir, "", mname);
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for ( List<Task> chain : chains )
+                futures.add(pool.submit(() -> deployChain(remote, chain, steps, errors)));
+            for ( Future<?> future : futures )
+                future.get();
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
-    /* 上传资源目录 */
-    void uploadDir(File dir, String path, String mname) throws Exception {
-        for ( File file : dir.listFiles() ) {
-            if ( file.isDirectory() )
-                uploadDir(file, (path.isEmpty() ? "" : (path + "/")) + file.getName(), mname);
-            if ( !file.isFile() )
-                continue;
-            byte[] buf = null;
-            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
-                long left = raf.length();
-                for ( long offset = 0; offset < left; offset += 1024*1024 ) {
-                    if ( left - offset <= 1024*1024 )
-                        buf = new byte[(int)(left - offset)];
-                    else if ( buf == null )
-                        buf = new byte[1024*1024];
-                    raf.seek(offset);
-                    raf.readFully(buf);
-                    Context.request("", "putResourceFile", mname,
-                            path, file.getName(), offset, buf).direct(host, port);
-                }
+    /* 依次部署一组有关联的模块 */
+    void deployChain(Remote remote, List<Task> chain, Map<Task, Step> steps, Map<String, Exception> errors) {
+        for ( Task task : chain ) {
+            try {
+                deployer.apply(remote, steps.get(task));
+            } catch (Exception e) {
+                remote.failed = true;
+                errors.put(errorKey(remote, task.mname), e);
+                deployer.telemetry.error(remote, task.mname, e);
             }
         }
     }
 
-    /* 设置配置参数 */
-    void setConfig(String mname, String config) throws Exception {
-        config = Util.checkEmpty(config);
-        if ( config == null )
-            return;
-        getLog().info("set configuration ...");
-        Context.request("", "setConfig", mname, config).direct(host, port);
+    /* 分组：使用相同JAR包或者依赖其他模块JAR包的模块放在同一组，被依赖的模块排在前面 */
+    List<List<Task>> getChains(List<Task> tasks) {
+        int size = tasks.size();
+        int[] group = new int[size];
+        for ( int i = 0; i < size; i ++ )
+            group[i] = i;
+        for ( int i = 0; i < size; i ++ )
+            for ( int j = 0; j < size; j ++ )
+                if ( i != j && isRelated(tasks.get(i), tasks.get(j)) ) {
+                    int gi = root(group, i), gj = root(group, j);
+                    if ( gi != gj )
+                        group[Math.max(gi, gj)] = Math.min(gi, gj);
+                }
+
+        Map<Integer, List<Task>> groups = new LinkedHashMap<>();
+        for ( int i = 0; i < size; i ++ )
+            groups.computeIfAbsent(root(group, i), k -> new ArrayList<>()).add(tasks.get(i));
+        List<List<Task>> chains = new ArrayList<>();
+        for ( List<Task> list : groups.values() ) {
+            List<Task> chain = new ArrayList<>();
+            while ( !list.isEmpty() ) {
+                int index = 0;
+                for ( int i = 0; i < list.size(); i ++ ) {
+                    boolean depended = false;
+                    for ( Task other : list )
+                        if ( other != list.get(i) && dependsOn(list.get(i), other) ) {
+                            depended = true;
+                            break;
+                        }
+                    if ( !depended ) {
+                        index = i;
+                        break;
+                    }
+                }
+                chain.add(list.remove(index));
+            }
+            chains.add(chain);
+        }
+        return chains;
+    }
+    // 查找分组的根
+    private int root(int[] group, int i) {
+        while ( group[i] != i )
+            i = group[i];
+        return i;
+    }
+    // task是否依赖other的JAR包
+    private boolean dependsOn(Task task, Task other) {
+        String gav = getArtifactName(other.main);
+        for ( Artifact artifact : task.depends )
+            if ( gav.equals(getArtifactName(artifact)) )
+                return true;
+        return false;
     }
+    // 两个模块是否有关联
+    private boolean isRelated(Task a, Task b) {
+        return getArtifactName(a.main).equals(getArtifactName(b.main)) || dependsOn(a, b) || dependsOn(b, a);
+    }
+
 
 }
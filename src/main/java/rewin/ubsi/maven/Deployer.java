@@ -0,0 +1,774 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import rewin.ubsi.common.Util;
+import rewin.ubsi.container.Info;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 通过容器的管理接口部署一个微服务/过滤器：卸载、安装JAR包、上传资源文件、注册、设置配置参数、启动
+ */
+class Deployer {
+
+    /* 待部署的模块 */
+    static class Task {
+        Config.Service  srv;
+        AbstractUbsiMojo source;        // 模块所在的项目
+        String          mname;          // 服务名或过滤器的类名
+        Artifact        main;           // 模块的JAR包
+        List<Artifact>  depends = new ArrayList<>();    // 依赖的JAR包（不包括容器的JAR包）
+        ResourcePack    pack;           // 打包的资源文件，部署到多个容器时共用
+        boolean         force = false;  // 是否强制上传模块的JAR包
+        String          resource;       // 资源文件的摘要，部署到多个容器时共用
+    }
+
+    /* 模块的部署步骤：比较容器中的运行状态得到的最少操作 */
+    static class Step {
+        Task            task;
+        Integer         status;             // 模块在容器中的状态，null表示不存在
+        boolean         install = false;    // 安装模块（已存在时先卸载）
+        boolean         resource = false;   // 上传资源文件并重启
+        boolean         config = false;     // 设置配置参数（不重启）
+        boolean         start = false;      // 启动
+        List<String>    reasons = new ArrayList<>();
+
+        boolean isEmpty() {
+            return !install && !resource && !config && !start;
+        }
+
+        public String toString() {
+            List<String> ops = new ArrayList<>();
+            if ( install )
+                ops.add(status == null ? "install" : "reinstall");
+            if ( resource )
+                ops.add("upload resources and restart");
+            if ( config )
+                ops.add("set config");
+            if ( start && !install && !resource )
+                ops.add("start");
+            if ( ops.isEmpty() )
+                return "\"" + task.mname + "\": unchanged";
+            return "\"" + task.mname + "\": " + String.join(", ", ops) + " (" + String.join(", ", reasons) + ")";
+        }
+    }
+
+    private final static String SENT_RESOURCE = "resource:";    // 上传记录中资源文件摘要的前缀
+    private final static String SENT_CONFIG = "config:";        // 上传记录中配置参数摘要的前缀
+
+    private AbstractUbsiMojo mojo;
+
+    ChunkUploader uploader;             // 文件上传
+    Compression compression;            // 上传数据的压缩及统计
+    DigestCache digestCache;            // JAR包的摘要缓存，为null时只检查容器中是否有JAR包
+    boolean strictStart = false;        // 启动失败时是否作为错误
+    boolean resourcePack = false;       // 是否将资源目录中的小文件打包上传
+    long packThreshold = 256*1024;      // 打包上传时小文件的长度上限
+    boolean nodePrefix = false;         // 日志是否增加容器地址的前缀
+    boolean modulePrefix = false;       // 日志是否增加模块名字的前缀
+
+    Telemetry telemetry = new Telemetry();          // 各阶段的时间、字节数、请求数量及延迟
+    AtomicInteger skipJars = new AtomicInteger();   // 内容未变化而跳过的JAR包数量
+    AtomicLong skipBytes = new AtomicLong();        // 跳过上传的字节数
+
+    Deployer(AbstractUbsiMojo mojo, ChunkUploader uploader, Compression compression, DigestCache digestCache) {
+        this.mojo = mojo;
+        this.uploader = uploader;
+        this.compression = compression;
+        this.digestCache = digestCache;
+    }
+
+    /* 获得模块的JAR包及依赖 */
+    Task getTask(Config.Service srv) throws MojoExecutionException {
+        return getTask(mojo, srv);
+    }
+
+    /* 获得指定项目（reactor中的其他项目）中模块的JAR包及依赖 */
+    Task getTask(AbstractUbsiMojo source, Config.Service srv) throws MojoExecutionException {
+        Task task = new Task();
+        task.srv = srv;
+        task.source = source;
+        task.mname = srv.name == null ? srv.className : srv.name;
+        task.main = source.getArtifact(srv);
+        for ( Artifact artifact : source.getDependency(srv) )
+            if ( !source.isSysLib(artifact.getGroupId(), artifact.getArtifactId()) )
+                task.depends.add(artifact);
+        return task;
+    }
+
+    /* 开始模块的一个部署阶段 */
+    Telemetry.Phase phase(Remote remote, Task task, String name) {
+        return telemetry.begin(remote, task.mname, name);
+    }
+
+    /* 输出模块的日志 */
+    void info(Remote remote, Task task, String msg) {
+        mojo.getLog().info(prefix(remote, task) + msg);
+    }
+    // 多个容器或多个模块同时部署时，日志增加前缀
+    String prefix(Remote remote, Task task) {
+        if ( nodePrefix && modulePrefix )
+            return "[" + remote.getAddress() + "/" + task.mname + "] ";
+        if ( nodePrefix )
+            return "[" + remote.getAddress() + "] ";
+        if ( modulePrefix )
+            return "[" + task.mname + "] ";
+        return "";
+    }
+
+    /* 获得模块在容器中的状态，模块不存在时返回null */
+    static Integer getStatus(Info.Runtime info, Config.Service srv) {
+        if ( srv.name == null && info.filters != null ) {
+            for ( Info.FRuntime fr : info.filters )
+                if ( fr.class_name.equals(srv.className) )
+                    return fr.status;
+        }
+        if ( srv.name != null && info.services != null && info.services.containsKey(srv.name) )
+            return info.services.get(srv.name).status;
+        return null;
+    }
+
+    /* 获得模块在容器中使用的JAR包，模块不存在时返回null */
+    static Info.GAV getJarLib(Info.Runtime info, Config.Service srv) {
+        if ( srv.name == null && info.filters != null ) {
+            for ( Info.FRuntime fr : info.filters )
+                if ( fr.class_name.equals(srv.className) )
+                    return fr.jar_lib;
+        }
+        if ( srv.name != null && info.services != null && info.services.containsKey(srv.name) )
+            return info.services.get(srv.name).jar_lib;
+        return null;
+    }
+
+    /* 比较容器中的运行状态与期望状态，得到模块需要的操作；reconcile为false时总是重新安装 */
+    Step diff(Remote remote, Task task, Info.Runtime info, boolean reconcile) throws Exception {
+        Telemetry.Phase phase = phase(remote, task, "diff");
+        try {
+            return compare(remote, task, info, reconcile);
+        } finally {
+            phase.close();
+        }
+    }
+    private Step compare(Remote remote, Task task, Info.Runtime info, boolean reconcile) throws Exception {
+        Step step = new Step();
+        step.task = task;
+        step.status = getStatus(info, task.srv);
+        if ( step.status == null ) {
+            step.install = true;
+            step.reasons.add("not installed");
+            return step;
+        }
+        if ( !reconcile || digestCache == null ) {
+            step.install = true;
+            step.reasons.add("forced");
+            return step;
+        }
+        // JAR包：模块使用的GAV、主JAR包及依赖的摘要
+        Info.GAV gav = getJarLib(info, task.srv);
+        String name = mojo.getArtifactName(task.main);
+        String old = gav == null ? null : gav.groupId + ":" + gav.artifactId + ":" + gav.version;
+        if ( !name.equals(old) ) {
+            step.install = true;
+            step.reasons.add(old + " -> " + name);
+        }
+        List<Artifact> jars = new ArrayList<>();
+        jars.add(task.main);
+        jars.addAll(task.depends);
+        prefetch(remote, task, jars);
+        for ( Artifact artifact : jars ) {
+            String res = checkJar(remote, task, artifact);
+            if ( res != null ) {
+                step.install = true;
+                step.reasons.add(mojo.getArtifactName(artifact) + " " + res);
+            }
+        }
+        if ( step.install )
+            return step;
+        // 资源文件及配置参数：与最近一次上传的记录比较
+        String res = getResourceDigest(task);
+        if ( res != null && !res.equals(digestCache.getSent(remote.getAddress(), SENT_RESOURCE + task.mname)) ) {
+            step.resource = true;
+            step.reasons.add("resources changed");
+        }
+        String config = Util.checkEmpty(task.srv.configJson);
+        if ( config != null && !sha256(config).equals(digestCache.getSent(remote.getAddress(), SENT_CONFIG + task.mname)) ) {
+            step.config = true;
+            step.reasons.add("config changed");
+        }
+        if ( step.status != 1 ) {
+            step.start = true;
+            step.reasons.add("status " + step.status);
+        }
+        return step;
+    }
+
+    /* 检查容器中的JAR包，一致时返回null，否则返回原因；每个JAR包只检查一次 */
+    String checkJar(Remote remote, Task task, Artifact artifact) throws Exception {
+        String name = mojo.getArtifactName(artifact);
+        String state = remote.jarStates.get(name);
+        if ( state == null ) {
+            String gid = artifact.getGroupId();
+            String aid = artifact.getArtifactId();
+            String ver = artifact.getVersion();
+            int installed = hasJar(remote, gid, aid, ver);
+            if ( installed <= 0 )
+                state = "missing";
+            else
+                state = isSameJar(remote, gid, aid, ver, digestCache.digest(task.source.checkArtifact(artifact))) ? "" : "changed";
+            remote.jarStates.put(name, state);
+        }
+        return state.isEmpty() ? null : state;
+    }
+
+    /* 批量预取JAR包的hasJar及getJarDigest结果，容器不支持batch时不预取（由后续的调用逐个获得） */
+    void prefetch(Remote remote, Task task, List<Artifact> jars) throws Exception {
+        if ( !remote.hasFeature("batch") )
+            return;
+        List<String> names = new ArrayList<>();
+        List<Object[]> calls = new ArrayList<>();
+        for ( Artifact artifact : jars ) {
+            String name = mojo.getArtifactName(artifact);
+            if ( remote.jarStates.containsKey(name) || remote.hasJars.containsKey(name) || names.contains(name) )
+                continue;
+            names.add(name);
+            calls.add(new Object[] { "hasJar", artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion() });
+        }
+        if ( calls.size() <= 1 )
+            return;
+        List<Remote.Result> results = remote.batch(calls, false);
+        List<Object[]> digests = new ArrayList<>();
+        List<String> installed = new ArrayList<>();
+        for ( int i = 0; i < calls.size(); i ++ ) {
+            Remote.Result res = results.get(i);
+            if ( res.error != null || !(res.value instanceof Integer) )
+                continue;       // 由后续的调用重新获得
+            remote.hasJars.put(names.get(i), (Integer)res.value);
+            if ( (Integer)res.value > 0 && remote.digest && digestCache != null ) {
+                Object[] call = calls.get(i).clone();
+                call[0] = "getJarDigest";
+                digests.add(call);
+                installed.add(names.get(i));
+            }
+        }
+        if ( digests.size() <= 1 )
+            return;
+        results = remote.batch(digests, false);
+        for ( int i = 0; i < digests.size(); i ++ ) {
+            Remote.Result res = results.get(i);
+            if ( res.error == null && res.value instanceof String )
+                remote.jarDigests.put(installed.get(i), (String)res.value);
+        }
+        info(remote, task, "prefetch " + calls.size() + " jar-file state(s) in batch");
+    }
+
+    /* 容器中是否有JAR包：>0 已安装，0 已注册未上传，<0 未注册；优先使用预取的结果 */
+    int hasJar(Remote remote, String gid, String aid, String ver) throws Exception {
+        Integer installed = remote.hasJars.remove(gid + ":" + aid + ":" + ver);
+        if ( installed != null )
+            return installed;
+        return (Integer)remote.call("hasJar", gid, aid, ver);
+    }
+
+    /* 容器中的JAR包是否与本地一致：摘要一致，或者无法获得摘要的非SNAPSHOT版本（发布版本的内容不会变化） */
+    boolean isSameJar(Remote remote, String gid, String aid, String ver, String sha) {
+        String rsha = getJarDigest(remote, gid, aid, ver);
+        if ( rsha == null )
+            rsha = digestCache.getSent(remote.getAddress(), gid + ":" + aid + ":" + ver);
+        return sha.equalsIgnoreCase(rsha == null ? "" : rsha) || (rsha == null && !ver.endsWith(Artifact.SNAPSHOT_VERSION));
+    }
+
+    /* 资源文件的摘要：相对路径及内容的摘要，没有资源目录时返回null */
+    String getResourceDigest(Task task) throws Exception {
+        String path = Util.checkEmpty(task.srv.resourcePath);
+        if ( path == null || digestCache == null )
+            return null;
+        synchronized (task) {
+            if ( task.resource == null ) {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                Map<String, File> files = new TreeMap<>();
+                Stager.collect(new File(path), "", files);
+                for ( Map.Entry<String, File> entry : files.entrySet() )
+                    update(md, entry.getKey() + "|" + (entry.getKey().endsWith("/") ? "" : digestCache.digest(entry.getValue())));
+                task.resource = DigestCache.toHex(md.digest());
+            }
+            return task.resource;
+        }
+    }
+
+    /* 记录上传到容器的资源文件及配置参数 */
+    void saveState(Remote remote, Task task) throws Exception {
+        if ( digestCache == null )
+            return;
+        String res = getResourceDigest(task);
+        if ( res != null )
+            digestCache.setSent(remote.getAddress(), SENT_RESOURCE + task.mname, res);
+        String config = Util.checkEmpty(task.srv.configJson);
+        if ( config != null )
+            digestCache.setSent(remote.getAddress(), SENT_CONFIG + task.mname, sha256(config));
+    }
+
+    /* 执行部署步骤 */
+    void apply(Remote remote, Step step) throws Exception {
+        Task task = step.task;
+        if ( step.install ) {
+            deploy(remote, task);
+            return;
+        }
+        mojo.getLog().info("");
+        info(remote, task, ">>> update \"" + task.mname + "\": " + String.join(", ", step.reasons) + " >>>");
+        if ( step.resource ) {
+            info(remote, task, "stop \"" + task.mname + "\" ...");
+            Telemetry.Phase phase = phase(remote, task, "stop");
+            try {
+                remote.call("setStatus", task.mname, 0);
+            } finally {
+                phase.close();
+            }
+            uploadResource(remote, task, task.srv.resourcePath);
+        }
+        if ( step.config )
+            setConfig(remote, task, task.srv.configJson);
+        saveState(remote, task);
+        if ( step.resource || step.start )
+            start(remote, task);
+        else
+            info(remote, task, "update over.");
+    }
+
+    /* 卸载已经存在的模块 */
+    void uninstall(Remote remote, Task task, Info.Runtime info) throws Exception {
+        if ( getStatus(info, task.srv) != null ) {
+            info(remote, task, "\"" + task.mname + "\" founded, uninstall ...");
+            Integer res;
+            Telemetry.Phase phase = phase(remote, task, "uninstall");
+            try {
+                res = (Integer)remote.call("uninstall", task.mname);
+            } finally {
+                phase.close();
+            }
+            uninstalled(remote, task, res);
+        }
+    }
+
+    /* 卸载多个已经存在的模块，容器支持batch时使用一次请求，返回卸载失败的模块 */
+    Map<Task, Exception> uninstall(Remote remote, List<Task> tasks, Info.Runtime info) {
+        Map<Task, Exception> errors = new LinkedHashMap<>();
+        List<Task> installed = new ArrayList<>();
+        for ( Task task : tasks )
+            if ( getStatus(info, task.srv) != null )
+                installed.add(task);
+        if ( installed.size() <= 1 || !remote.hasFeature("batch") ) {
+            for ( Task task : installed )
+                try {
+                    uninstall(remote, task, info);
+                } catch (Exception e) {
+                    errors.put(task, e);
+                }
+            return errors;
+        }
+        List<Object[]> calls = new ArrayList<>();
+        for ( Task task : installed ) {
+            info(remote, task, "\"" + task.mname + "\" founded, uninstall ...");
+            calls.add(new Object[] { "uninstall", task.mname });
+        }
+        List<Remote.Result> results;
+        Deque<Telemetry.Phase> phases = new ArrayDeque<>();     // 每个模块都计入这次请求的时间
+        try {
+            for ( Task task : installed )
+                phases.push(phase(remote, task, "uninstall"));
+            results = remote.batch(calls, false);
+        } catch (Exception e) {
+            for ( Task task : installed )
+                errors.put(task, e);
+            return errors;
+        } finally {
+            while ( !phases.isEmpty() )
+                phases.pop().close();
+        }
+        for ( int i = 0; i < installed.size(); i ++ ) {
+            Task task = installed.get(i);
+            try {
+                uninstalled(remote, task, (Integer)results.get(i).get());
+            } catch (Exception e) {
+                errors.put(task, e);
+            }
+        }
+        return errors;
+    }
+
+    // 检查卸载的结果
+    private void uninstalled(Remote remote, Task task, Integer res) throws Exception {
+        if ( res != null && res != 0 )
+            throw new Exception(mojo.getArtifactName(task.main) + " jar-file still in use by other service/filter");
+        // 卸载时容器可能删除不再使用的JAR包，需要重新检查
+        List<Artifact> jars = new ArrayList<>(task.depends);
+        jars.add(task.main);
+        for ( Artifact artifact : jars ) {
+            String name = mojo.getArtifactName(artifact);
+            remote.jarTasks.remove(name);
+            remote.jarStates.remove(name);
+            remote.hasJars.remove(name);
+            remote.jarDigests.remove(name);
+        }
+    }
+
+    /* 模块的指纹：类名、JAR包的摘要、资源文件、配置参数，用来判断模块是否有变化 */
+    String fingerprint(Task task) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        Config.Service srv = task.srv;
+        update(md, task.mname + "|" + srv.className);
+        List<Artifact> jars = new ArrayList<>(task.depends);
+        jars.add(task.main);
+        for ( Artifact artifact : jars ) {
+            File file = task.source.checkArtifact(artifact);
+            update(md, mojo.getArtifactName(artifact) + "|" + (digestCache == null ? DigestCache.sha256(file) : digestCache.digest(file)));
+        }
+        if ( Util.checkEmpty(srv.resourcePath) != null ) {
+            Map<String, File> files = new TreeMap<>();
+            Stager.collect(new File(srv.resourcePath), "", files);
+            for ( Map.Entry<String, File> entry : files.entrySet() )
+                update(md, entry.getKey() + "|" + entry.getValue().length() + "|" + entry.getValue().lastModified());
+        }
+        update(md, srv.configJson == null ? "" : srv.configJson);
+        return DigestCache.toHex(md.digest());
+    }
+    private static String sha256(String str) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("SHA-256");
+        update(md, str);
+        return DigestCache.toHex(md.digest());
+    }
+    private static void update(MessageDigest md, String str) {
+        md.update(str.getBytes(StandardCharsets.UTF_8));
+        md.update((byte)'\n');
+    }
+
+    /* 部署一个微服务/过滤器 */
+    void deploy(Remote remote, Task task) throws Exception {
+        Config.Service srv = task.srv;
+        String mname = task.mname;
+        mojo.getLog().info("");
+        info(remote, task, ">>> deploy " + (srv.name != null ? "service" : "filter") + " \"" + mname + "\" >>>");
+
+        // 安装依赖的JAR包
+        List<Object[]> depends = new ArrayList<>();
+        Artifact mainArtifact = task.main;
+        String gid = mainArtifact.getGroupId();
+        String aid = mainArtifact.getArtifactId();
+        String ver = mainArtifact.getVersion();
+        List<Artifact> jars = new ArrayList<>(task.depends);
+        jars.add(mainArtifact);
+        Telemetry.Phase phase = phase(remote, task, "check-jar");
+        try {
+            prefetch(remote, task, jars);
+        } finally {
+            phase.close();
+        }
+        for ( Artifact artifact : task.depends ) {
+            depends.add(new Object[] { artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion() });
+            installJarOnce(remote, task, artifact, null);
+        }
+        // 安装主JAR包
+        if ( task.force )
+            installJar(remote, task, gid, aid, ver, task.source.checkArtifact(mainArtifact), depends.toArray(), true);
+        else
+            installJarOnce(remote, task, mainArtifact, depends.toArray());
+
+        uploadResource(remote, task, srv.resourcePath);
+        if ( remote.hasFeature("batch") ) {
+            registerAndStart(remote, task, new Object[]{gid, aid, ver});
+            return;
+        }
+        info(remote, task, "register \"" + mname + "\" ...");
+        phase = phase(remote, task, "register");
+        try {
+            remote.call("install", srv.name, srv.className, new Object[]{gid, aid, ver});
+        } catch (Exception e) {
+            try {
+                remote.call("unregisterJar", gid, aid, ver);
+            } catch (Exception ee) {
+            }
+            throw e;
+        } finally {
+            phase.close();
+        }
+
+        setConfig(remote, task, srv.configJson);
+        saveState(remote, task);
+        start(remote, task);
+    }
+
+    /* 使用一次批量请求注册模块、设置配置参数并启动，前面的调用失败时跳过后面的调用 */
+    void registerAndStart(Remote remote, Task task, Object[] gav) throws Exception {
+        Config.Service srv = task.srv;
+        String mname = task.mname;
+        String config = Util.checkEmpty(srv.configJson);
+        info(remote, task, "register" + (config != null ? ", set configuration" : "") + " and start \"" + mname + "\" ...");
+        List<Object[]> calls = new ArrayList<>();
+        calls.add(new Object[] { "install", srv.name, srv.className, gav });
+        if ( config != null )
+            calls.add(new Object[] { "setConfig", mname, config });
+        calls.add(new Object[] { "setStatus", mname, 1 });
+        List<Remote.Result> results;
+        Telemetry.Phase phase = phase(remote, task, "register+config+start");     // 一次请求，不能区分每个调用的时间
+        try {
+            results = remote.batch(calls, true);
+        } finally {
+            phase.close();
+        }
+        try {
+            results.get(0).get();
+        } catch (Exception e) {
+            try {
+                remote.call("unregisterJar", gav);
+            } catch (Exception ee) {
+            }
+            throw e;
+        }
+        for ( Remote.Result res : results.subList(1, results.size() - 1) )
+            res.get();
+        saveState(remote, task);
+        started(remote, task, (Boolean)results.get(results.size() - 1).get());
+    }
+
+    /* 启动模块 */
+    void start(Remote remote, Task task) throws Exception {
+        String mname = task.mname;
+        info(remote, task, "start \"" + mname + "\" ...");
+        boolean res_start;
+        Telemetry.Phase phase = phase(remote, task, "start");
+        try {
+            res_start = (Boolean)remote.call("setStatus", mname, 1);
+        } finally {
+            phase.close();
+        }
+        started(remote, task, res_start);
+    }
+
+    // 检查启动的结果
+    private void started(Remote remote, Task task, boolean res_start) throws Exception {
+        String mname = task.mname;
+        if ( !res_start && strictStart )
+            throw new Exception("start \"" + mname + "\" failure");
+        if ( !res_start )
+            mojo.getLog().warn(prefix(remote, task) + "start \"" + mname + "\" failure!");
+        else
+            info(remote, task, "start \"" + mname + "\" ok, deploy over.");
+    }
+
+    /* 安装一个JAR包，多个模块共用的JAR包只安装一次 */
+    void installJarOnce(Remote remote, Task task, Artifact artifact, Object[] depends) throws Exception {
+        FutureTask<Void> ft = new FutureTask<>(() -> {
+            installJar(remote, task, artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), task.source.checkArtifact(artifact), depends, false);
+            return null;
+        });
+        String name = mojo.getArtifactName(artifact);
+        FutureTask<Void> old = remote.jarTasks.putIfAbsent(name, ft);
+        if ( old == null ) {
+            ft.run();
+            old = ft;
+        }
+        try {
+            old.get();
+        } catch (ExecutionException e) {
+            remote.jarTasks.remove(name, ft);       // 失败的JAR包可以由后续的部署重试
+            Throwable t = e.getCause();
+            if ( t instanceof Exception )
+                throw (Exception)t;
+            throw e;
+        }
+    }
+
+    /* 安装一个JAR包 */
+    void installJar(Remote remote, Task task, String gid, String aid, String ver, File file, Object[] depends, boolean force) throws Exception {
+        if ( !force && "".equals(remote.jarStates.get(gid + ":" + aid + ":" + ver)) ) {
+            skipJars.incrementAndGet();     // 已经检查过，与本地一致
+            skipBytes.addAndGet(file.length());
+            return;
+        }
+        int installed;
+        String sha;
+        Telemetry.Phase phase = phase(remote, task, "check-jar");
+        try {
+            installed = hasJar(remote, gid, aid, ver);
+            sha = digestCache == null ? null : digestCache.digest(file);
+            if ( installed > 0 && !force ) {
+                if ( sha == null )
+                    return;
+                if ( isSameJar(remote, gid, aid, ver, sha) ) {
+                    skipJars.incrementAndGet();
+                    skipBytes.addAndGet(file.length());
+                    remote.jarStates.put(gid + ":" + aid + ":" + ver, "");
+                    return;
+                }
+                info(remote, task, file.getName() + " changed, re-upload ...");
+            }
+        } finally {
+            phase.close();
+        }
+        // 上传JAR包
+        String fname = file.getName();
+        info(remote, task, "install " + fname + " ...");
+        phase = phase(remote, task, "upload-jar");
+        try {
+            uploadJar(remote, task, fname, file);
+            if ( sha != null )
+                digestCache.setSent(remote.getAddress(), gid + ":" + aid + ":" + ver, sha);
+            // 注册JAR包
+            if ( installed < 0 )
+                remote.call("registerJar", gid, aid, ver, fname, depends);
+        } finally {
+            phase.close();
+        }
+        remote.jarStates.put(gid + ":" + aid + ":" + ver, "");
+    }
+
+    /* 上传JAR包：容器支持resume时，从容器已经收到的位置继续，中断后重新获得位置并继续 */
+    void uploadJar(Remote remote, Task task, String fname, File file) throws Exception {
+        ChunkUploader.Sender sender = compression.wrap(file, remote.hasFeature("deflate"),
+                (offset, buf) -> remote.call("uploadJar", fname, offset, buf),
+                (offset, buf, raw) -> remote.call("uploadJarDeflate", fname, offset, buf, raw));
+        long start = getUploadOffset(remote, task, fname, file);
+        for ( int i = 0; ; i ++ ) {
+            try {
+                uploader.upload(file, sender, start);
+                Telemetry.bytes(file.length() - start);
+                return;
+            } catch (Exception e) {
+                if ( i >= uploader.retry || !remote.hasFeature("resume") )
+                    throw e;
+                Thread.sleep(uploader.getBackoff(i));
+                info(remote, task, fname + " upload interrupted, " + e);
+                start = getUploadOffset(remote, task, fname, file);
+            }
+        }
+    }
+
+    /* 获得可以继续上传的位置：容器已经收到的长度，并且与本地文件的前缀摘要一致，否则返回0 */
+    long getUploadOffset(Remote remote, Task task, String fname, File file) {
+        if ( !remote.hasFeature("resume") )
+            return 0;
+        try {
+            long received = ((Number)remote.call("getUploadOffset", fname)).longValue();
+            if ( received <= 0 || received > file.length() )
+                return 0;
+            String rsha = (String)remote.call("getUploadDigest", fname, received);
+            if ( !DigestCache.sha256(file, received).equalsIgnoreCase(rsha == null ? "" : rsha) )
+                return 0;
+            info(remote, task, "resume " + fname + " from " + received + "/" + file.length());
+            return received;
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+
+    /* 获得容器中JAR包的摘要，容器不支持时返回null */
+    String getJarDigest(Remote remote, String gid, String aid, String ver) {
+        if ( !remote.digest )
+            return null;
+        String prefetched = remote.jarDigests.remove(gid + ":" + aid + ":" + ver);
+        if ( prefetched != null )
+            return prefetched;
+        try {
+            return (String)remote.call("getJarDigest", gid, aid, ver);
+        } catch (Exception e) {
+            remote.digest = false;       // 较早版本的容器，使用本地的上传记录
+            return null;
+        }
+    }
+
+    /* 上传资源文件 */
+    void uploadResource(Remote remote, Task task, String path) throws Exception {
+        path = Util.checkEmpty(path);
+        if ( path == null )
+            return;
+        File dir = new File(path);
+        if ( !dir.exists() || !dir.isDirectory() )
+            throw new Exception("invalid resource path \"" + path + "\".");
+        Telemetry.Phase phase = phase(remote, task, "upload-resource");
+        try {
+            if ( resourcePack && remote.hasFeature("unpackResource") ) {
+                uploadPack(remote, task, dir);
+                return;
+            }
+            info(remote, task, "upload resource files ...");
+            uploadDir(remote, dir, "", task.mname);
+        } finally {
+            phase.close();
+        }
+    }
+
+    /* 打包上传资源文件 */
+    void uploadPack(Remote remote, Task task, File dir) throws Exception {
+        ResourcePack pack;
+        synchronized (task) {
+            if ( task.pack == null )
+                task.pack = ResourcePack.build(dir, packThreshold);
+            pack = task.pack;
+        }
+        String mname = task.mname;
+        info(remote, task, "upload resource files, " + pack.packed + " packed, " + pack.large.size() + " large ...");
+        if ( pack.zip != null ) {
+            uploadResourceFile(remote, mname, "", ResourcePack.PACK_FILE, pack.zip);
+            try {
+                remote.call("unpackResource", mname, "", ResourcePack.PACK_FILE);
+            } finally {
+                deletePack(remote, task);
+            }
+        }
+        for ( ResourcePack.Item item : pack.large )
+            uploadResourceFile(remote, mname, item.path, item.file.getName(), item.file);
+    }
+
+    // 删除容器中的压缩包，压缩包不能留在模块的资源目录中
+    private void deletePack(Remote remote, Task task) {
+        try {
+            if ( remote.hasFeature("deleteResourceFile") )
+                remote.call("deleteResourceFile", task.mname, "", ResourcePack.PACK_FILE);
+            else
+                mojo.getLog().warn(prefix(remote, task) + "container can't delete \"" + ResourcePack.PACK_FILE + "\" after unpack");
+        } catch (Exception e) {
+            mojo.getLog().warn(prefix(remote, task) + "delete \"" + ResourcePack.PACK_FILE + "\" error, " + e);
+        }
+    }
+
+    /* 上传资源目录 */
+    void uploadDir(Remote remote, File dir, String path, String mname) throws Exception {
+        for ( File file : dir.listFiles() ) {
+            if ( file.isDirectory() )
+                uploadDir(remote, file, (path.isEmpty() ? "" : (path + "/")) + file.getName(), mname);
+            if ( !file.isFile() )
+                continue;
+            uploadResourceFile(remote, mname, path, file.getName(), file);
+        }
+    }
+
+    /* 上传一个资源文件 */
+    void uploadResourceFile(Remote remote, String mname, String path, String fname, File file) throws Exception {
+        uploader.upload(file, compression.wrap(file, remote.hasFeature("deflate"),
+                (offset, buf) -> remote.call("putResourceFile", mname, path, fname, offset, buf),
+                (offset, buf, raw) -> remote.call("putResourceFileDeflate", mname, path, fname, offset, buf, raw)));
+        Telemetry.bytes(file.length());
+    }
+
+    /* 设置配置参数 */
+    void setConfig(Remote remote, Task task, String config) throws Exception {
+        config = Util.checkEmpty(config);
+        if ( config == null )
+            return;
+        info(remote, task, "set configuration ...");
+        Telemetry.Phase phase = phase(remote, task, "set-config");
+        try {
+            remote.call("setConfig", task.mname, config);
+        } finally {
+            phase.close();
+        }
+    }
+}
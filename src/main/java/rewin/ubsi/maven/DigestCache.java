@@ -0,0 +1,100 @@
+package rewin.ubsi.maven;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+/**
+ * JAR包的SHA-256摘要缓存，保存在项目的构建目录下
+ *  - "file:{路径}" = "{长度}:{修改时间}:{摘要}"，文件未变化时不重复计算
+ *  - "sent:{host#port}:{groupId:artifactId:version}" = "{摘要}"，记录最近一次上传到容器的内容
+ */
+class DigestCache {
+
+    final static String CACHE_FILE = "ubsi-digest.properties";
+
+    private File file;
+    private Properties props = new Properties();
+    private boolean dirty = false;
+
+    DigestCache(File dir) {
+        file = new File(dir, CACHE_FILE);
+        if ( file.isFile() ) {
+            try (InputStream in = new FileInputStream(file)) {
+                props.load(in);
+            } catch (Exception e) {
+                props.clear();      // 缓存损坏，重新计算
+            }
+        }
+    }
+
+    /** 获得文件的摘要 */
+    synchronized String digest(File f) throws IOException {
+        String key = "file:" + f.getAbsolutePath();
+        String stamp = f.length() + ":" + f.lastModified() + ":";
+        String value = props.getProperty(key);
+        if ( value != null && value.startsWith(stamp) )
+            return value.substring(stamp.length());
+        String res = sha256(f);
+        props.setProperty(key, stamp + res);
+        dirty = true;
+        return res;
+    }
+
+    /** 获得最近一次上传到容器的摘要 */
+    synchronized String getSent(String container, String gav) {
+        return props.getProperty("sent:" + container + ":" + gav);
+    }
+
+    /** 记录上传到容器的摘要 */
+    synchronized void setSent(String container, String gav, String digest) {
+        props.setProperty("sent:" + container + ":" + gav, digest);
+        dirty = true;
+    }
+
+    /** 保存缓存 */
+    synchronized void save() {
+        if ( !dirty )
+            return;
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new FileOutputStream(file)) {
+            props.store(out, "ubsi-maven-plugin digest cache");
+            dirty = false;
+        } catch (Exception e) {
+        }
+    }
+
+    /** 计算文件的SHA-256 */
+    static String sha256(File f) throws IOException {
+        return sha256(f, Long.MAX_VALUE);
+    }
+
+    /** 计算文件前length个字节的SHA-256 */
+    static String sha256(File f, long length) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+        byte[] buf = new byte[64*1024];
+        try (InputStream in = new FileInputStream(f)) {
+            int n;
+            while ( length > 0 && (n = in.read(buf, 0, (int)Math.min(buf.length, length))) > 0 ) {
+                md.update(buf, 0, n);
+                length -= n;
+            }
+        }
+        return toHex(md.digest());
+    }
+
+    /** 转换为16进制字符串 */
+    static String toHex(byte[] data) {
+        StringBuilder sb = new StringBuilder(data.length * 2);
+        for ( byte b : data ) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+            sb.append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
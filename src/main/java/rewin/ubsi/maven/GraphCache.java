@@ -0,0 +1,109 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+import rewin.ubsi.common.Util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 依赖树的磁盘缓存，保存在项目的构建目录下，每种依赖解析范围（run为compile+runtime，deploy为runtime）一个文件
+ *  - 第一行为缓存的键（有效POM、依赖列表及本地仓库中JAR包状态的摘要），键不一致时缓存失效
+ *  - 之后每行一个节点（先序遍历）：深度 groupId artifactId version scope type classifier optional file
+ */
+class GraphCache {
+
+    final static String CACHE_FILE = "ubsi-dependency-graph";
+    final static String FORMAT = "1";       // 缓存格式的版本
+
+    private File file;
+
+    GraphCache(File dir, String scope) {
+        file = new File(dir, CACHE_FILE + (Util.checkEmpty(scope) == null ? "" : "-" + scope.replace('+', '-')) + ".txt");
+    }
+
+    /** 缓存文件名 */
+    String getName() {
+        return file.getName();
+    }
+
+    /** 读取缓存，键不一致或者缓存损坏时返回null */
+    DependencyNode load(String key) {
+        if ( !file.isFile() )
+            return null;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            if ( !(FORMAT + ":" + key).equals(reader.readLine()) )
+                return null;
+            List<DefaultDependencyNode> stack = new ArrayList<>();     // 当前路径上的节点
+            DefaultDependencyNode root = null;
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                String[] f = line.split("\t", -1);
+                if ( f.length != 9 )
+                    return null;
+                int depth = Integer.parseInt(f[0]);
+                if ( depth > stack.size() || (depth == 0 && root != null) )
+                    return null;
+                Artifact artifact = new DefaultArtifact(f[1], f[2], f[3], value(f[4]), f[5], value(f[6]), new DefaultArtifactHandler(f[5]));
+                artifact.setOptional(Boolean.parseBoolean(f[7]));
+                if ( value(f[8]) != null )
+                    artifact.setFile(new File(f[8]));
+                while ( stack.size() > depth )
+                    stack.remove(stack.size() - 1);
+                DefaultDependencyNode parent = depth == 0 ? null : stack.get(depth - 1);
+                DefaultDependencyNode node = new DefaultDependencyNode(parent, artifact, null, null, null);
+                node.setChildren(new ArrayList<>());
+                if ( parent == null )
+                    root = node;
+                else
+                    parent.getChildren().add(node);
+                stack.add(node);
+            }
+            return root;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** 保存缓存，resolver用于获得JAR包的文件 */
+    void save(String key, DependencyNode root, Function<Artifact, File> resolver) {
+        file.getParentFile().mkdirs();
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+            writer.write(FORMAT + ":" + key + "\n");
+            write(writer, root, 0, resolver);
+        } catch (Exception e) {
+            file.delete();
+        }
+    }
+
+    /** 删除缓存 */
+    void invalidate() {
+        file.delete();
+    }
+
+    // 写一个节点及其子节点
+    private void write(Writer writer, DependencyNode node, int depth, Function<Artifact, File> resolver) throws IOException {
+        Artifact artifact = node.getArtifact();
+        File jar = resolver.apply(artifact);
+        writer.write(depth + "\t" + artifact.getGroupId() + "\t" + artifact.getArtifactId() + "\t" + artifact.getVersion() + "\t" +
+                text(artifact.getScope()) + "\t" + artifact.getType() + "\t" + text(artifact.getClassifier()) + "\t" +
+                artifact.isOptional() + "\t" + (jar == null ? "" : jar.getAbsolutePath()) + "\n");
+        for ( DependencyNode child : node.getChildren() )
+            write(writer, child, depth + 1, resolver);
+    }
+
+    private static String text(String s) {
+        return s == null ? "" : s;
+    }
+
+    private static String value(String s) {
+        return s.isEmpty() ? null : s;
+    }
+}
@@ -0,0 +1,163 @@
+package rewin.ubsi.maven;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 在Maven的JVM中运行容器：使用core-libs构建独立的ClassLoader，通过反射调用Bootstrap.start()/stop()
+ *
+ * 容器从工作目录读取配置文件及模块，没有Bootstrap.start(String)时，运行目录必须是Maven的当前目录
+ * （修改user.dir不会改变进程的工作目录，而且会影响Maven中的其他插件）
+ */
+class InProcessContainer {
+
+    final static String BOOTSTRAP = "rewin.ubsi.container.Bootstrap";
+
+    /** 启动结果的回调 */
+    interface Listener {
+        void started();                 // 容器启动完成
+        void failed(Throwable e);       // 容器启动失败
+    }
+
+    private File dir;               // 容器的运行目录
+    private File sysDir;            // 容器运行时的JAR包目录
+    private URLClassLoader loader;
+    private Class<?> bootstrap;
+    private volatile boolean started = false;     // Bootstrap.start()是否已经完成
+    private CountDownLatch stopped = new CountDownLatch(1);
+
+    InProcessContainer(File dir, File sysDir) {
+        this.dir = dir;
+        this.sysDir = sysDir;
+    }
+
+    // 独立ClassLoader的父节点：Java 9+使用PlatformClassLoader，否则使用BootstrapClassLoader
+    private static ClassLoader getParent() {
+        try {
+            return (ClassLoader)ClassLoader.class.getMethod("getPlatformClassLoader").invoke(null);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // 解开反射调用的异常
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof InvocationTargetException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /** ubsi-core是否支持指定工作目录（Bootstrap.start(String)），jars为容器运行时的JAR包 */
+    static boolean canStartInDir(List<File> jars) {
+        try {
+            List<URL> urls = new ArrayList<>();
+            for ( File jar : jars )
+                urls.add(jar.toURI().toURL());
+            try (URLClassLoader cl = new URLClassLoader(urls.toArray(new URL[0]), getParent())) {
+                Class.forName(BOOTSTRAP, false, cl).getMethod("start", String.class);
+                return true;
+            }
+        } catch (Exception | LinkageError e) {
+            return false;
+        }
+    }
+
+    /** 在独立线程中启动容器，完成后回调 */
+    void start(Listener listener) throws Exception {
+        File[] jars = sysDir.listFiles((d, name) -> name.endsWith(".jar"));
+        if ( jars == null || jars.length == 0 )
+            throw new Exception("no jar found in \"" + sysDir + "\"");
+        Arrays.sort(jars);
+        List<URL> urls = new ArrayList<>();
+        for ( File jar : jars )
+            urls.add(jar.toURI().toURL());
+        loader = new URLClassLoader(urls.toArray(new URL[0]), getParent());
+        bootstrap = Class.forName(BOOTSTRAP, false, loader);
+
+        // 优先使用带工作目录参数的start(String)，否则容器使用进程的当前目录
+        Method withDir = null;
+        try {
+            withDir = bootstrap.getMethod("start", String.class);
+        } catch (NoSuchMethodException e) {
+            if ( !dir.getCanonicalFile().equals(new File(".").getCanonicalFile()) ) {
+                release();
+                throw new Exception("this ubsi-core can't run in-process in \"" + dir + "\", use -Ddir=. or run without ubsi.inProcess");
+            }
+        }
+        Method method = withDir != null ? withDir : bootstrap.getMethod("start");
+
+        Thread thread = new Thread(() -> {
+            try {
+                if ( method.getParameterCount() == 1 )
+                    method.invoke(null, dir.getAbsolutePath());
+                else
+                    method.invoke(null);
+                started = true;
+            } catch (Throwable e) {
+                release();
+                listener.failed(unwrap(e));
+                return;
+            }
+            listener.started();
+        }, "ubsi-container");
+        thread.setContextClassLoader(loader);
+        thread.start();
+    }
+
+    /** 容器是否在运行（包括正在启动） */
+    boolean isAlive() {
+        return stopped.getCount() > 0;
+    }
+
+    /** 等待容器停止 */
+    void waitFor() throws InterruptedException {
+        stopped.await();
+    }
+
+    /**
+     * 停止容器并释放ClassLoader
+     * @param timeout   等待Bootstrap.stop()的时间（毫秒）
+     * @return 是否在超时前正常停止
+     */
+    boolean stop(long timeout) {
+        if ( !started ) {
+            release();
+            return true;
+        }
+        started = false;
+        CountDownLatch done = new CountDownLatch(1);
+        Thread thread = new Thread(() -> {
+            try {
+                bootstrap.getMethod("stop").invoke(null);
+            } catch (Throwable e) {
+                System.out.println("====== stop ubsi-container error, " + unwrap(e) + " ======");
+            }
+            done.countDown();
+        }, "ubsi-container-stop");
+        thread.setContextClassLoader(loader);
+        thread.setDaemon(true);
+        thread.start();
+        boolean res = false;
+        try {
+            res = done.await(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+        }
+        release();
+        return res;
+    }
+
+    // 关闭ClassLoader
+    private synchronized void release() {
+        if ( loader != null ) {
+            try { loader.close(); } catch (Exception e) {}
+            loader = null;
+        }
+        stopped.countDown();
+    }
+}
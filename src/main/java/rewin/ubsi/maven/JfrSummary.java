@@ -0,0 +1,249 @@
+package rewin.ubsi.maven;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * JFR记录文件的摘要：热点方法、内存分配、GC暂停、锁竞争
+ *
+ * 只统计调用栈中包含指定类（微服务/过滤器）的事件，事件归属于栈中最靠近栈顶的那个类的方法。
+ * 读取记录文件需要jdk.jfr.consumer（Java 11+），插件按Java 8编译，所以通过反射调用。
+ */
+class JfrSummary {
+
+    private final static String CONSUMER = "jdk.jfr.consumer.";
+
+    // 一个统计项
+    private static class Entry {
+        final String name;
+        long count;
+        long value;         // 分配的字节数，或者等待的纳秒数
+
+        Entry(String name) {
+            this.name = name;
+        }
+    }
+
+    // jdk.jfr.consumer的反射接口
+    private static class Api {
+        final Class<?> fileClass = Class.forName(CONSUMER + "RecordingFile");
+        final Method hasMoreEvents = fileClass.getMethod("hasMoreEvents");
+        final Method readEvent = fileClass.getMethod("readEvent");
+        final Class<?> eventClass = Class.forName(CONSUMER + "RecordedEvent");
+        final Method getEventType = eventClass.getMethod("getEventType");
+        final Method getStackTrace = eventClass.getMethod("getStackTrace");
+        final Method getDuration = eventClass.getMethod("getDuration");
+        final Method getTypeName = Class.forName("jdk.jfr.EventType").getMethod("getName");
+        final Class<?> objectClass = Class.forName(CONSUMER + "RecordedObject");
+        final Method hasField = objectClass.getMethod("hasField", String.class);
+        final Method getLong = objectClass.getMethod("getLong", String.class);
+        final Method getFieldDuration = objectClass.getMethod("getDuration", String.class);
+        final Method getFieldClass = objectClass.getMethod("getClass", String.class);
+        final Method getFrames = Class.forName(CONSUMER + "RecordedStackTrace").getMethod("getFrames");
+        final Class<?> frameClass = Class.forName(CONSUMER + "RecordedFrame");
+        final Method isJavaFrame = frameClass.getMethod("isJavaFrame");
+        final Method getMethod = frameClass.getMethod("getMethod");
+        final Class<?> methodClass = Class.forName(CONSUMER + "RecordedMethod");
+        final Method getMethodType = methodClass.getMethod("getType");
+        final Method getMethodName = methodClass.getMethod("getName");
+        final Method getClassName = Class.forName(CONSUMER + "RecordedClass").getMethod("getName");
+
+        Api() throws Exception {
+        }
+    }
+
+    private final List<String> prefixes;    // 统计的类名前缀，为空时统计所有事件（使用栈顶的方法）
+    private final int top;                  // 每一类输出的条目数量
+    private Api api;
+
+    private long samples;       // CPU采样的总数
+    private long matched;       // 经过指定类的CPU采样数
+    private long gcCount;       // GC次数
+    private long gcPause;       // GC暂停的总时间（纳秒）
+    private long gcMaxPause;    // 最长的GC暂停（纳秒）
+    private final Map<String, Entry> cpu = new HashMap<>();
+    private final Map<String, Entry> allocSample = new HashMap<>();     // jdk.ObjectAllocationSample（Java 16+）
+    private final Map<String, Entry> allocTlab = new HashMap<>();       // jdk.ObjectAllocationInNewTLAB/OutsideTLAB
+    private final Map<String, Entry> locks = new HashMap<>();
+
+    JfrSummary(Collection<String> prefixes, int top) {
+        this.prefixes = new ArrayList<>(prefixes);
+        this.top = top;
+    }
+
+    /** 读取记录文件，当前JVM不支持jdk.jfr.consumer时抛出ClassNotFoundException */
+    void read(File file) throws Exception {
+        api = new Api();
+        Object recording = api.fileClass.getConstructor(Path.class).newInstance(file.toPath());
+        try {
+            while ( (Boolean)invoke(api.hasMoreEvents, recording) )
+                add(invoke(api.readEvent, recording));
+        } finally {
+            ((AutoCloseable)recording).close();
+        }
+    }
+
+    // 调用反射接口，抛出原始的异常
+    private static Object invoke(Method method, Object obj, Object... args) throws Exception {
+        try {
+            return method.invoke(obj, args);
+        } catch (InvocationTargetException e) {
+            Throwable t = e.getCause();
+            throw t instanceof Exception ? (Exception)t : e;
+        }
+    }
+
+    // 处理一个事件
+    private void add(Object event) throws Exception {
+        String type = (String)invoke(api.getTypeName, invoke(api.getEventType, event));
+        switch ( type ) {
+            case "jdk.ExecutionSample":
+                samples ++;
+                String method = getMethod(event);
+                if ( method != null ) {
+                    matched ++;
+                    getEntry(cpu, method).count ++;
+                }
+                break;
+            case "jdk.ObjectAllocationSample":
+                addAlloc(allocSample, event, "weight");
+                break;
+            case "jdk.ObjectAllocationInNewTLAB":
+                addAlloc(allocTlab, event, "tlabSize");
+                break;
+            case "jdk.ObjectAllocationOutsideTLAB":
+                addAlloc(allocTlab, event, "allocationSize");
+                break;
+            case "jdk.JavaMonitorEnter":
+                addLock(event, "monitorClass");
+                break;
+            case "jdk.ThreadPark":
+                addLock(event, "parkedClass");
+                break;
+            case "jdk.GarbageCollection":
+                long pause = getNanos(event, "sumOfPauses");
+                gcCount ++;
+                gcPause += pause;
+                gcMaxPause = Math.max(gcMaxPause, Math.max(pause, getNanos(event, "longestPause")));
+                break;
+        }
+    }
+
+    // 事件归属的方法：调用栈中第一个匹配前缀的Java方法，没有前缀时为栈顶的方法
+    private String getMethod(Object event) throws Exception {
+        Object stack = invoke(api.getStackTrace, event);
+        if ( stack == null )
+            return null;
+        for ( Object frame : (List<?>)invoke(api.getFrames, stack) ) {
+            if ( !(Boolean)invoke(api.isJavaFrame, frame) )
+                continue;
+            Object method = invoke(api.getMethod, frame);
+            String cls = (String)invoke(api.getClassName, invoke(api.getMethodType, method));
+            if ( prefixes.isEmpty() || matches(cls) )
+                return cls + "." + invoke(api.getMethodName, method);
+        }
+        return null;
+    }
+
+    // 类名是否匹配前缀
+    private boolean matches(String cls) {
+        for ( String prefix : prefixes )
+            if ( cls.startsWith(prefix) )
+                return true;
+        return false;
+    }
+
+    // 事件中的类名字段
+    private String getClassField(Object event, String field) throws Exception {
+        if ( !(Boolean)invoke(api.hasField, event, field) )
+            return "?";
+        Object cls = invoke(api.getFieldClass, event, field);
+        return cls == null ? "?" : (String)invoke(api.getClassName, cls);
+    }
+
+    // 事件中的时间字段（纳秒）
+    private long getNanos(Object event, String field) throws Exception {
+        if ( !(Boolean)invoke(api.hasField, event, field) )
+            return 0;
+        Duration d = (Duration)invoke(api.getFieldDuration, event, field);
+        return d == null ? 0 : d.toNanos();
+    }
+
+    // 内存分配
+    private void addAlloc(Map<String, Entry> map, Object event, String field) throws Exception {
+        String method = getMethod(event);
+        if ( method == null || !(Boolean)invoke(api.hasField, event, field) )
+            return;
+        Entry entry = getEntry(map, getClassField(event, "objectClass") + " @ " + method);
+        entry.count ++;
+        entry.value += (Long)invoke(api.getLong, event, field);
+    }
+
+    // 锁竞争及等待
+    private void addLock(Object event, String field) throws Exception {
+        String method = getMethod(event);
+        if ( method == null )
+            return;
+        Entry entry = getEntry(locks, getClassField(event, field) + " @ " + method);
+        entry.count ++;
+        entry.value += ((Duration)invoke(api.getDuration, event)).toNanos();
+    }
+
+    private static Entry getEntry(Map<String, Entry> map, String name) {
+        return map.computeIfAbsent(name, Entry::new);
+    }
+
+    // 按数值排序后的前top项
+    private List<Entry> getTop(Map<String, Entry> map, boolean byCount) {
+        List<Entry> list = new ArrayList<>(map.values());
+        list.sort((a, b) -> Long.compare(byCount ? b.count : b.value, byCount ? a.count : a.value));
+        return list.size() > top ? list.subList(0, top) : list;
+    }
+
+    private static String percent(long n, long total) {
+        return String.format("%5.1f%%", total <= 0 ? 0.0 : n * 100.0 / total);
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.1fms", nanos / 1000000.0);
+    }
+
+    private static String bytes(long n) {
+        if ( n >= 1024 * 1024 )
+            return String.format("%.1fMB", n / 1024.0 / 1024.0);
+        return String.format("%.1fKB", n / 1024.0);
+    }
+
+    /** 输出摘要 */
+    List<String> format() {
+        List<String> lines = new ArrayList<>();
+        String scope = prefixes.isEmpty() ? "all classes" : String.join(", ", prefixes);
+
+        lines.add("CPU: " + samples + " samples, " + matched + " (" + percent(matched, samples).trim() + ") in " + scope);
+        for ( Entry e : getTop(cpu, true) )
+            lines.add("  " + percent(e.count, samples) + "  " + e.count + "  " + e.name);
+
+        Map<String, Entry> alloc = allocSample.isEmpty() ? allocTlab : allocSample;
+        long allocTotal = 0;
+        for ( Entry e : alloc.values() )
+            allocTotal += e.value;
+        lines.add("Allocation: " + bytes(allocTotal) + (alloc == allocSample ? " (sampled weight)" : " (TLAB)") + " in " + scope);
+        for ( Entry e : getTop(alloc, false) )
+            lines.add("  " + percent(e.value, allocTotal) + "  " + bytes(e.value) + "  " + e.name);
+
+        lines.add("GC: " + gcCount + " collections, total pause " + millis(gcPause) + ", max pause " + millis(gcMaxPause) +
+                (gcCount > 0 ? ", avg pause " + millis(gcPause / gcCount) : ""));
+
+        long lockTotal = 0;
+        for ( Entry e : locks.values() )
+            lockTotal += e.value;
+        lines.add("Lock: " + millis(lockTotal) + " blocked/parked in " + scope);
+        for ( Entry e : getTop(locks, false) )
+            lines.add("  " + millis(e.value) + "  " + e.count + "x  " + e.name);
+        return lines;
+    }
+}
@@ -0,0 +1,86 @@
+package rewin.ubsi.maven;
+
+/**
+ * 延迟的直方图（HDR风格）：小于256的值精确记录，更大的值按2的整数次幂分段，每段128个桶，相对误差小于1%
+ */
+class LatencyHistogram {
+
+    final static int SUB_BITS = 8;                      // 精确记录的位数
+    final static int SUB_COUNT = 1 << SUB_BITS;         // 256
+    final static int HALF_COUNT = SUB_COUNT >> 1;       // 每段的桶数量
+    final static int BUCKETS = SUB_COUNT + (64 - SUB_BITS) * HALF_COUNT;
+
+    private long[] counts = new long[BUCKETS];
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = 0;
+    private double sum = 0;
+
+    // 值所在的桶
+    static int index(long value) {
+        if ( value < SUB_COUNT )
+            return (int)Math.max(0, value);
+        int shift = 64 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return SUB_COUNT + (shift - 1) * HALF_COUNT + (int)((value >>> shift) - HALF_COUNT);
+    }
+
+    // 桶中的最大值
+    static long highest(int index) {
+        if ( index < SUB_COUNT )
+            return index;
+        int shift = (index - SUB_COUNT) / HALF_COUNT + 1;
+        long sub = (index - SUB_COUNT) % HALF_COUNT + HALF_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /** 记录一个值 */
+    void recordValue(long value) {
+        counts[index(value)] ++;
+        total ++;
+        sum += value;
+        if ( value < min )
+            min = value;
+        if ( value > max )
+            max = value;
+    }
+
+    /** 合并另一个直方图 */
+    void add(LatencyHistogram other) {
+        for ( int i = 0; i < BUCKETS; i ++ )
+            counts[i] += other.counts[i];
+        total += other.total;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    long getCount() {
+        return total;
+    }
+
+    long getMin() {
+        return total == 0 ? 0 : min;
+    }
+
+    long getMax() {
+        return max;
+    }
+
+    double getMean() {
+        return total == 0 ? 0 : sum / total;
+    }
+
+    /** 百分位数（0-100），返回所在桶的最大值，不超过记录的最大值 */
+    long getPercentile(double percentile) {
+        if ( total == 0 )
+            return 0;
+        long target = Math.max(1, (long)Math.ceil(percentile / 100 * total));
+        long count = 0;
+        for ( int i = 0; i < BUCKETS; i ++ ) {
+            count += counts[i];
+            if ( count >= target )
+                return Math.min(highest(i), max);
+        }
+        return max;
+    }
+}
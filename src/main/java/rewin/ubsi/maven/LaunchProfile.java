@@ -0,0 +1,145 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.*;
+
+/**
+ * 容器JVM的启动参数：预定义的启动方案、自定义参数以及AppCDS归档
+ */
+class LaunchProfile {
+
+    final static String CDS_FILE = "ubsi-container.jsa";            // AppCDS归档文件
+    final static String CDS_KEY_FILE = "ubsi-container.jsa.key";    // 生成归档时的core-libs摘要
+
+    /* 预定义的启动方案 */
+    final static Map<String, List<String>> PROFILES = new LinkedHashMap<>();
+    static {
+        // 开发：快速启动，只使用C1编译器，串行GC
+        PROFILES.put("dev", Arrays.asList("-XX:TieredStopAtLevel=1", "-XX:+UseSerialGC", "-Xshare:auto"));
+        // 类生产环境：G1 GC，固定的堆大小
+        PROFILES.put("prod", Arrays.asList("-XX:+UseG1GC", "-Xms1g", "-Xmx1g", "-XX:MaxGCPauseMillis=200"));
+    }
+
+    /** 容器使用的JVM */
+    static class Jvm {
+        String  executable;     // java命令
+        String  version;        // java.version
+        int     major;          // 主版本号
+    }
+
+    /**
+     * 获得容器使用的JVM：指定的java命令，缺省为运行Maven的JVM
+     * @param executable    java命令的路径，为null时使用${java.home}/bin/java
+     */
+    static Jvm getJvm(String executable) throws MojoExecutionException {
+        Jvm jvm = new Jvm();
+        String own = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+        jvm.executable = executable == null ? own : executable;
+        if ( jvm.executable.equals(own) ) {
+            jvm.version = System.getProperty("java.version", "");
+            jvm.major = getMajor(System.getProperty("java.specification.version", "1.8"));
+            return jvm;
+        }
+        // 其他JVM：从"java -XshowSettings:properties -version"的输出中获得版本
+        try {
+            ProcessBuilder builder = new ProcessBuilder(jvm.executable, "-XshowSettings:properties", "-version");
+            builder.redirectErrorStream(true);
+            Process process = builder.start();
+            String spec = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ( (line = reader.readLine()) != null ) {
+                    line = line.trim();
+                    if ( line.startsWith("java.version = ") )
+                        jvm.version = line.substring(15).trim();
+                    else if ( line.startsWith("java.specification.version = ") )
+                        spec = line.substring(29).trim();
+                }
+            }
+            process.waitFor();
+            if ( jvm.version == null || spec == null )
+                throw new Exception("version not found");
+            jvm.major = getMajor(spec);
+        } catch (Exception e) {
+            throw new MojoExecutionException("check java executable \"" + jvm.executable + "\" error, " + e);
+        }
+        return jvm;
+    }
+
+    /** 获得启动方案的JVM参数 */
+    static List<String> getProfile(String name) throws MojoExecutionException {
+        List<String> args = PROFILES.get(name);
+        if ( args == null )
+            throw new MojoExecutionException("invalid launch profile \"" + name + "\", available: " + PROFILES.keySet());
+        return args;
+    }
+
+    /** 拆分自定义的JVM参数（以空白字符分隔） */
+    static List<String> split(String jvmArgs) {
+        List<String> res = new ArrayList<>();
+        if ( jvmArgs != null )
+            for ( String arg : jvmArgs.trim().split("\\s+") )
+                if ( !arg.isEmpty() )
+                    res.add(arg);
+        return res;
+    }
+
+    /**
+     * 获得AppCDS参数：core-libs未变化并且归档存在时使用归档，否则在容器退出时重新生成归档（需要Java 13+）
+     * @param dir       容器运行目录
+     * @param sysDir    容器运行时的JAR包目录
+     * @param jvm       容器使用的JVM，归档只能由生成它的JVM使用
+     * @return 需要的JVM参数，不支持时返回空列表
+     */
+    static List<String> getAppCds(File dir, File sysDir, Jvm jvm) {
+        if ( jvm.major < 13 )
+            return Collections.emptyList();
+        File archive = new File(dir, CDS_FILE);
+        File keyFile = new File(dir, CDS_KEY_FILE);
+        String key = getKey(sysDir, jvm);
+        try {
+            if ( archive.isFile() && keyFile.isFile() && key.equals(new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.UTF_8)) )
+                return Collections.singletonList("-XX:SharedArchiveFile=" + CDS_FILE);
+            archive.delete();
+            Files.write(keyFile.toPath(), key.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            return Collections.emptyList();
+        }
+        return Collections.singletonList("-XX:ArchiveClassesAtExit=" + CDS_FILE);
+    }
+
+    // core-libs的摘要：JAR包的名字、长度、修改时间，以及容器JVM的路径及版本
+    private static String getKey(File sysDir, Jvm jvm) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            File[] files = sysDir.listFiles();
+            if ( files != null ) {
+                Arrays.sort(files);
+                for ( File f : files )
+                    md.update((f.getName() + "|" + f.length() + "|" + f.lastModified() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            md.update((jvm.executable + "|" + jvm.version).getBytes(StandardCharsets.UTF_8));
+            return DigestCache.toHex(md.digest());
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    // Java的主版本号
+    private static int getMajor(String ver) {
+        if ( ver.startsWith("1.") )
+            ver = ver.substring(2);
+        try {
+            return Integer.parseInt(ver);
+        } catch (Exception e) {
+            return 8;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import rewin.ubsi.common.Codec;
+import rewin.ubsi.common.Util;
+import rewin.ubsi.consumer.Context;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 对容器中的微服务进行压力测试：mvn ubsi:loadtest -Dcontainer={host#port} -Dubsi.concurrency={并发数} -Dubsi.rate={每秒请求数} -Dubsi.duration={秒}
+ */
+@Mojo(
+        name = "loadtest"
+)
+public class LoadTestMojo extends AbstractMojo {
+
+    private final static String REPORT_FILE = "ubsi-loadtest.json";     // 测试报告
+
+    @Parameter( defaultValue = "${project.build.directory}", required = true, readonly = true )
+    private File outputDirectory;
+
+    @Parameter(property = "loadtests")
+    private List<Config.LoadTest> loadtests;    // POM中的<loadtests>配置项
+
+    /* 目标容器，可以使用 -Dcontainer={xxx} 来指定 */
+    @Parameter( property = "container", defaultValue = "localhost#7112")
+    private String container;
+
+    /* 并发的请求数量，可以使用 -Dubsi.concurrency={xxx} 来指定 */
+    @Parameter( property = "ubsi.concurrency", defaultValue = "8")
+    private int concurrency;
+
+    /* 每秒的请求数量，0表示不限制，可以使用 -Dubsi.rate={xxx} 来指定 */
+    @Parameter( property = "ubsi.rate", defaultValue = "0")
+    private double rate;
+
+    /* 测试时间（秒），可以使用 -Dubsi.duration={xxx} 来指定 */
+    @Parameter( property = "ubsi.duration", defaultValue = "30")
+    private int duration;
+
+    /* 预热时间（秒），预热期间的请求不计入结果，可以使用 -Dubsi.warmup={xxx} 来指定 */
+    @Parameter( property = "ubsi.warmup", defaultValue = "5")
+    private int warmup;
+
+    /* 基准结果文件，存在时比较本次结果，可以使用 -Dubsi.baseline={xxx} 来指定 */
+    @Parameter( property = "ubsi.baseline")
+    private File baseline;
+
+    /* 是否将本次结果保存为基准结果，可以使用 -Dubsi.saveBaseline=true 来指定 */
+    @Parameter( property = "ubsi.saveBaseline", defaultValue = "false")
+    private boolean saveBaseline;
+
+    /* 与基准结果比较时允许的退化比例（百分比），可以使用 -Dubsi.tolerance={xxx} 来指定 */
+    @Parameter( property = "ubsi.tolerance", defaultValue = "10")
+    private double tolerance;
+
+    /** 一个请求模板的测试结果，延迟的单位为毫秒 */
+    public static class Result {
+        public String   name;           // service.entry
+        public long     requests;       // 请求数量
+        public long     errors;         // 失败的数量
+        public double   errorRate;      // 失败的比例（百分比）
+        public double   throughput;     // 每秒的请求数量
+        public double   mean;
+        public double   p50;
+        public double   p90;
+        public double   p99;
+        public double   p999;
+        public double   max;
+    }
+
+    /** 测试报告 */
+    public static class Report {
+        public String       container;
+        public long         time;           // 测试时间
+        public int          concurrency;
+        public double       rate;
+        public int          duration;
+        public List<Result> results = new ArrayList<>();
+    }
+
+    // 请求模板
+    private static class Template {
+        Config.LoadTest cfg;
+        String          name;
+        Object[]        params;         // 没有占位符时预先解析的参数
+    }
+
+    // 一个请求线程的统计，测试结束后合并
+    private static class Stat {
+        LatencyHistogram[] histograms;
+        long[] errors;
+        String lastError;
+    }
+
+    private List<Template> templates = new ArrayList<>();
+    private int[] weights;              // 累计的请求比例
+    private AtomicLong seq = new AtomicLong();
+
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        System.out.println("\n> mvn ubsi:loadtest -Dcontainer={host_name#listener_port} -Dubsi.concurrency={workers} -Dubsi.rate={requests_per_second} -Dubsi.duration={seconds}\n");
+
+        prepare();
+        Remote remote = Remote.parse(Util.checkEmpty(container) == null ? "" : container.trim());
+        int workers = Math.max(1, concurrency);
+
+        getLog().info("====== load test " + remote.getAddress() + ", " + workers + " worker(s), " +
+                (rate > 0 ? rate + " req/s" : "unlimited rate") + ", " + warmup + "s warmup, " + duration + "s ======");
+        List<Stat> stats = new ArrayList<>();
+        long measured;
+        try {
+            Context.startup(".");
+            long now = System.nanoTime();
+            long begin = now + TimeUnit.SECONDS.toNanos(Math.max(0, warmup));    // 开始计入结果的时间
+            long end = begin + TimeUnit.SECONDS.toNanos(Math.max(1, duration));
+            AtomicLong next = new AtomicLong(now);      // 限速时下一个请求的计划时间
+            long interval = rate > 0 ? (long)(1e9 / rate) : 0;
+            List<Thread> threads = new ArrayList<>();
+            for ( int i = 0; i < workers; i ++ ) {
+                Stat stat = new Stat();
+                stat.histograms = new LatencyHistogram[templates.size()];
+                for ( int t = 0; t < templates.size(); t ++ )
+                    stat.histograms[t] = new LatencyHistogram();
+                stat.errors = new long[templates.size()];
+                stats.add(stat);
+                final int worker = i;
+                Thread thread = new Thread(() -> work(remote, worker, stat, begin, end, next, interval), "ubsi-loadtest-" + i);
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+            for ( Thread thread : threads )
+                thread.join();
+            measured = Math.max(1, System.nanoTime() - begin);     // 实际的测量时间，包括最后一批请求的完成时间
+        } catch (Exception e) {
+            throw new MojoExecutionException("load test error, " + e);
+        } finally {
+            try { Context.shutdown(); } catch (Exception e) {}
+        }
+
+        Report report = report(remote, stats, measured);
+        for ( Stat stat : stats )
+            if ( stat.lastError != null ) {
+                getLog().warn("last error: " + stat.lastError);
+                break;
+            }
+        save(report);
+        compare(report);
+        System.out.println();
+    }
+
+    // 检查并解析请求模板
+    private void prepare() throws MojoExecutionException {
+        if ( loadtests == null || loadtests.isEmpty() )
+            throw new MojoExecutionException("<loadtests> not found, add it into pom.xml:\n" +
+                    "<loadtests>\n" +
+                    "  <loadtest>\n" +
+                    "    <service>service_name</service>\n" +
+                    "    <entry>entry_name</entry>\n" +
+                    "    <paramsJson><![CDATA[[\"param\", ${seq}]]]></paramsJson>\n" +
+                    "    <weight>1</weight>\n" +
+                    "  </loadtest>\n" +
+                    "</loadtests>\n");
+        weights = new int[loadtests.size()];
+        int sum = 0;
+        for ( Config.LoadTest cfg : loadtests ) {
+            cfg.service = Util.checkEmpty(cfg.service);
+            cfg.entry = Util.checkEmpty(cfg.entry);
+            if ( cfg.service == null || cfg.entry == null )
+                throw new MojoExecutionException("invalid <service> or <entry> of loadtest");
+            Template template = new Template();
+            template.cfg = cfg;
+            template.name = cfg.service + "." + cfg.entry;
+            String json = Util.checkEmpty(cfg.paramsJson);
+            if ( json == null )
+                template.params = new Object[0];
+            else if ( !json.contains("${") )
+                template.params = parse(json, template.name);
+            sum += Math.max(0, cfg.weight);
+            weights[templates.size()] = sum;
+            templates.add(template);
+        }
+        if ( sum <= 0 )
+            throw new MojoExecutionException("invalid <weight> of loadtest");
+    }
+
+    // 解析请求参数
+    private static Object[] parse(String json, String name) throws MojoExecutionException {
+        Object obj;
+        try {
+            obj = Codec.fromJson(json);
+        } catch (Exception e) {
+            throw new MojoExecutionException("invalid <paramsJson> of \"" + name + "\", " + e);
+        }
+        if ( obj instanceof Object[] )
+            return (Object[])obj;
+        if ( obj instanceof Collection )
+            return ((Collection<?>)obj).toArray();
+        throw new MojoExecutionException("<paramsJson> of \"" + name + "\" should be a JSON array");
+    }
+
+    // 获得请求参数，替换模板中的占位符
+    private Object[] getParams(Template template, int worker) throws MojoExecutionException {
+        if ( template.params != null )
+            return template.params;
+        String json = template.cfg.paramsJson
+                .replace("${seq}", "" + seq.getAndIncrement())
+                .replace("${worker}", "" + worker)
+                .replace("${random}", "" + ThreadLocalRandom.current().nextInt(Integer.MAX_VALUE));
+        return parse(json, template.name);
+    }
+
+    // 按比例选择请求模板
+    private int pick() {
+        if ( weights.length == 1 )
+            return 0;
+        int r = ThreadLocalRandom.current().nextInt(weights[weights.length - 1]);
+        for ( int i = 0; i < weights.length; i ++ )
+            if ( r < weights[i] )
+                return i;
+        return weights.length - 1;
+    }
+
+    // 请求线程：限速时延迟从计划时间开始计算，避免请求排队时低估延迟
+    private void work(Remote remote, int worker, Stat stat, long begin, long end, AtomicLong next, long interval) {
+        while ( true ) {
+            long start = System.nanoTime();
+            if ( interval > 0 ) {
+                start = next.getAndAdd(interval);
+                long wait = start - System.nanoTime();
+                if ( wait > 0 )
+                    LockSupport.parkNanos(wait);
+            }
+            if ( start >= end || System.nanoTime() >= end )
+                return;         // 服务达不到指定速率时，计划时间会落后于实际时间
+            int t = pick();
+            Template template = templates.get(t);
+            boolean ok = true;
+            try {
+                Context.request(template.cfg.service, template.cfg.entry, getParams(template, worker)).direct(remote.host, remote.port);
+            } catch (Exception e) {
+                ok = false;
+                stat.lastError = template.name + ": " + e;
+            }
+            if ( start < begin )
+                continue;       // 预热
+            if ( ok )
+                stat.histograms[t].recordValue(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            else
+                stat.errors[t] ++;
+        }
+    }
+
+    // 合并统计，输出测试结果
+    private Report report(Remote remote, List<Stat> stats, long measured) {
+        Report report = new Report();
+        report.container = remote.getAddress();
+        report.time = System.currentTimeMillis();
+        report.concurrency = stats.size();
+        report.rate = rate;
+        report.duration = duration;
+        double seconds = measured / 1e9;
+        getLog().info(String.format("%-40s %10s %8s %10s %9s %9s %9s %9s %9s", "request", "count", "errors", "req/s", "p50(ms)", "p90(ms)", "p99(ms)", "p999(ms)", "max(ms)"));
+        for ( int t = 0; t < templates.size(); t ++ ) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            long errors = 0;
+            for ( Stat stat : stats ) {
+                histogram.add(stat.histograms[t]);
+                errors += stat.errors[t];
+            }
+            Result result = new Result();
+            result.name = templates.get(t).name;
+            result.requests = histogram.getCount() + errors;
+            result.errors = errors;
+            result.errorRate = result.requests == 0 ? 0 : errors * 100.0 / result.requests;
+            result.throughput = histogram.getCount() / seconds;
+            result.mean = histogram.getMean() / 1000;
+            result.p50 = histogram.getPercentile(50) / 1000.0;
+            result.p90 = histogram.getPercentile(90) / 1000.0;
+            result.p99 = histogram.getPercentile(99) / 1000.0;
+            result.p999 = histogram.getPercentile(99.9) / 1000.0;
+            result.max = histogram.getMax() / 1000.0;
+            report.results.add(result);
+            getLog().info(String.format("%-40s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f %9.2f", result.name, result.requests, result.errors,
+                    result.throughput, result.p50, result.p90, result.p99, result.p999, result.max));
+        }
+        return report;
+    }
+
+    // 保存测试报告及基准结果
+    private void save(Report report) throws MojoExecutionException {
+        try {
+            outputDirectory.mkdirs();
+            File file = new File(outputDirectory, REPORT_FILE);
+            Util.saveJsonFile(file, report);
+            getLog().info("report saved to " + file);
+            if ( saveBaseline && baseline != null ) {
+                Util.saveJsonFile(baseline, report);
+                getLog().info("baseline saved to " + baseline);
+            }
+        } catch (Exception e) {
+            throw new MojoExecutionException("save load test report error", e);
+        }
+    }
+
+    // 与基准结果比较：p99延迟增加、吞吐量下降或者错误率增加超过允许的比例时失败
+    private void compare(Report report) throws MojoExecutionException, MojoFailureException {
+        if ( baseline == null || saveBaseline || !baseline.isFile() )
+            return;
+        Report base;
+        try {
+            base = Util.readJsonFile(baseline, Report.class);
+        } catch (Exception e) {
+            throw new MojoExecutionException("read baseline \"" + baseline + "\" error", e);
+        }
+        Map<String, Result> old = new HashMap<>();
+        if ( base != null && base.results != null )
+            for ( Result result : base.results )
+                old.put(result.name, result);
+        double ratio = tolerance / 100;
+        List<String> regressions = new ArrayList<>();
+        for ( Result result : report.results ) {
+            Result b = old.get(result.name);
+            if ( b == null )
+                continue;
+            if ( b.p99 > 0 && result.p99 > b.p99 * (1 + ratio) )
+                regressions.add(String.format("%s p99 %.2fms -> %.2fms", result.name, b.p99, result.p99));
+            if ( b.throughput > 0 && result.throughput < b.throughput * (1 - ratio) )
+                regressions.add(String.format("%s throughput %.1f -> %.1f req/s", result.name, b.throughput, result.throughput));
+            if ( result.errorRate > b.errorRate + tolerance )
+                regressions.add(String.format("%s error rate %.2f%% -> %.2f%%", result.name, b.errorRate, result.errorRate));
+        }
+        if ( regressions.isEmpty() ) {
+            getLog().info("====== no regression against baseline " + baseline + " ======");
+            return;
+        }
+        for ( String regression : regressions )
+            getLog().error("regression: " + regression);
+        throw new MojoFailureException(regressions.size() + " regression(s) against baseline \"" + baseline + "\"");
+    }
+}
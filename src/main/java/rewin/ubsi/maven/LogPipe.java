@@ -0,0 +1,185 @@
+package rewin.ubsi.maven;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 容器进程输出的异步管道：读取线程只负责把日志行放入有界的环形缓冲区（满时丢弃最早的行），
+ * 输出线程批量写到控制台（可按级别过滤）及可选的滚动日志文件，容器进程不会因为控制台输出慢而阻塞
+ */
+class LogPipe {
+
+    final static String[] LEVELS = { "DEBUG", "INFO", "WARN", "ERROR" };
+
+    private InputStream in;
+    private PrintStream console;
+    private ArrayBlockingQueue<String> queue;
+    private int minLevel;               // 控制台输出的最低级别
+    private File logFile;               // 日志文件，null表示不写文件
+    private long rotateSize;            // 日志文件的滚动大小
+    private int rotateCount;            // 保留的历史日志文件数量
+
+    private AtomicLong dropped = new AtomicLong();  // 丢弃的行数
+    private long reported = 0;          // 已经报告的丢弃行数
+    private volatile boolean eof = false;
+    private boolean show = true;        // 当前行是否输出到控制台（没有级别的行跟随上一行）
+    private Writer writer;              // 日志文件
+    private long written = 0;           // 当前日志文件的大小
+    private Thread reader;
+    private Thread drainer;
+
+    LogPipe(InputStream in, PrintStream console, int capacity, String level, File logFile, long rotateSize, int rotateCount) {
+        this.in = in;
+        this.console = console;
+        this.queue = new ArrayBlockingQueue<>(Math.max(16, capacity));
+        this.minLevel = getLevel(level == null ? "" : level.toUpperCase());
+        this.logFile = logFile;
+        this.rotateSize = rotateSize;
+        this.rotateCount = Math.max(1, rotateCount);
+    }
+
+    /** 启动读取及输出线程 */
+    void start() {
+        reader = new Thread(this::read, "ubsi-log-reader");
+        reader.setDaemon(true);
+        reader.start();
+        drainer = new Thread(this::drain, "ubsi-log-writer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /** 等待剩余的日志输出完成 */
+    void close(long timeout) {
+        try {
+            reader.join(timeout);
+            eof = true;
+            drainer.join(timeout);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    /** 丢弃的行数 */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    // 读取进程的输出
+    private void read() {
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(in))) {
+            String s;
+            while ( (s = br.readLine()) != null ) {
+                while ( !queue.offer(s) ) {
+                    if ( queue.poll() != null )
+                        dropped.incrementAndGet();      // 缓冲区满，丢弃最早的行
+                }
+            }
+        } catch (IOException e) {
+            queue.offer("====== container-output error, " + e + " ======");
+        } finally {
+            eof = true;
+        }
+    }
+
+    // 批量输出
+    private void drain() {
+        List<String> batch = new ArrayList<>();
+        try {
+            while ( true ) {
+                String first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if ( first == null ) {
+                    if ( eof && queue.isEmpty() )
+                        break;
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, 1024);
+                write(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+        }
+        report();
+        if ( writer != null )
+            try { writer.close(); } catch (IOException e) {}
+    }
+
+    // 输出一批日志
+    private void write(List<String> batch) {
+        report();
+        for ( String s : batch ) {
+            int level = getLineLevel(s);
+            if ( level >= 0 )
+                show = level >= minLevel;
+            if ( show )
+                console.println(s);
+        }
+        console.flush();
+        if ( logFile != null )
+            writeFile(batch);
+    }
+
+    // 报告丢弃的行数
+    private void report() {
+        long n = dropped.get();
+        if ( n > reported ) {
+            console.println("====== " + (n - reported) + " line(s) of container-output dropped ======");
+            reported = n;
+        }
+    }
+
+    // 写日志文件，超过大小时滚动
+    private void writeFile(List<String> batch) {
+        try {
+            if ( writer == null ) {
+                logFile.getParentFile().mkdirs();
+                written = logFile.length();
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFile, true), StandardCharsets.UTF_8));
+            }
+            for ( String s : batch ) {
+                writer.write(s);
+                writer.write('\n');
+                written += s.length() + 1;
+            }
+            writer.flush();
+            if ( rotateSize > 0 && written >= rotateSize ) {
+                writer.close();
+                writer = null;
+                for ( int i = rotateCount - 1; i > 0; i -- ) {
+                    File f = new File(logFile.getPath() + "." + i);
+                    if ( f.exists() ) {
+                        File to = new File(logFile.getPath() + "." + (i + 1));
+                        to.delete();
+                        f.renameTo(to);
+                    }
+                }
+                File to = new File(logFile.getPath() + ".1");
+                to.delete();
+                logFile.renameTo(to);
+            }
+        } catch (IOException e) {
+            console.println("====== write \"" + logFile + "\" error, " + e + " ======");
+            logFile = null;
+        }
+    }
+
+    // 级别的序号，未知级别返回-1
+    private static int getLevel(String level) {
+        for ( int i = 0; i < LEVELS.length; i ++ )
+            if ( LEVELS[i].equals(level) )
+                return i;
+        return -1;
+    }
+
+    // 日志行的级别（行首的"[LEVEL]"），没有级别返回-1
+    private static int getLineLevel(String s) {
+        if ( !s.startsWith("[") )
+            return -1;
+        int index = s.indexOf(']');
+        return index > 1 ? getLevel(s.substring(1, index)) : -1;
+    }
+}
@@ -0,0 +1,134 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.*;
+import rewin.ubsi.common.Util;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 使用JFR记录运行容器，容器停止时输出热点摘要：mvn ubsi:profile -Dubsi.jfrDuration={秒} -Dubsi.jfrSettings={default|profile|jfc文件}
+ */
+@Mojo(
+        name = "profile",
+        requiresDependencyResolution = ResolutionScope.COMPILE_PLUS_RUNTIME
+)
+@Execute(phase = LifecyclePhase.PACKAGE)
+public class ProfileMojo extends RunMojo {
+
+    private final static String JFR_FILE = "ubsi-profile.jfr";          // 运行目录中的JFR记录文件
+    private final static String SUMMARY_FILE = "ubsi-profile.txt";      // 运行目录中的摘要文件
+    private final static int STACK_DEPTH = 256;     // 调用栈的记录深度，服务的方法通常在较深的位置
+
+    /* JFR的配置（default、profile，或者.jfc文件），可以使用 -Dubsi.jfrSettings={xxx} 来指定 */
+    @Parameter( property = "ubsi.jfrSettings", defaultValue = "profile")
+    private String jfrSettings;
+
+    /* 记录时间（秒），到时后停止容器并输出摘要，0表示直到CTRL-C，可以使用 -Dubsi.jfrDuration={xxx} 来指定 */
+    @Parameter( property = "ubsi.jfrDuration", defaultValue = "0")
+    private int jfrDuration;
+
+    /* 摘要中每一类输出的条目数量，可以使用 -Dubsi.jfrTop={xxx} 来指定 */
+    @Parameter( property = "ubsi.jfrTop", defaultValue = "10")
+    private int jfrTop;
+
+    /* 统计的类名前缀（以逗号分隔），缺省为微服务/过滤器的className所在的包，可以使用 -Dubsi.jfrFilter={xxx} 来指定 */
+    @Parameter( property = "ubsi.jfrFilter")
+    private String jfrFilter;
+
+    private final AtomicBoolean summarized = new AtomicBoolean(false);
+
+    /** 使用JFR记录运行 */
+    public void execute() throws MojoExecutionException {
+        if ( isInProcess() || isDaemon() )
+            throw new MojoExecutionException("ubsi:profile can't be used with ubsi.inProcess or ubsi.daemon");
+        super.execute();
+    }
+
+    /** 启动JFR记录，容器退出时保存到运行目录 */
+    @Override
+    protected List<String> getExtraJvmArgs() throws MojoExecutionException {
+        File jfr = new File(getRunDir(), JFR_FILE);
+        if ( jfr.exists() && !jfr.delete() )
+            throw new MojoExecutionException("delete \"" + jfr + "\" error");
+        String settings = Util.checkEmpty(jfrSettings) == null ? "profile" : jfrSettings.trim();
+        File jfc = new File(settings);
+        if ( jfc.isFile() )
+            settings = jfc.getAbsolutePath();   // 容器的工作目录是运行目录
+        return Arrays.asList(
+                "-XX:FlightRecorderOptions=stackdepth=" + STACK_DEPTH,
+                "-XX:StartFlightRecording=name=ubsi,settings=" + settings + ",filename=" + JFR_FILE + ",dumponexit=true"
+        );
+    }
+
+    /** 指定了记录时间时，到时后停止容器 */
+    @Override
+    protected void onReady() {
+        if ( jfrDuration <= 0 )
+            return;
+        System.out.println("====== profiling for " + jfrDuration + "s ======");
+        Thread timer = new Thread(() -> {
+            try {
+                Thread.sleep(jfrDuration * 1000L);
+            } catch (InterruptedException e) {
+                return;
+            }
+            System.out.println("====== profiling over, stop ubsi-container ======");
+            stopContainer();
+        }, "ubsi-profile");
+        timer.setDaemon(true);
+        timer.start();
+    }
+
+    /** 输出JFR记录的摘要 */
+    @Override
+    protected void onStopped() {
+        if ( !summarized.compareAndSet(false, true) )
+            return;
+        File jfr = new File(getRunDir(), JFR_FILE);
+        if ( !jfr.isFile() ) {
+            System.out.println("====== JFR recording \"" + jfr + "\" not found ======\n");
+            return;
+        }
+        JfrSummary summary = new JfrSummary(getPrefixes(), jfrTop);
+        try {
+            summary.read(jfr);
+        } catch (ClassNotFoundException e) {
+            System.out.println("====== JFR recording saved to " + jfr + ", summary requires Java 11+ ======\n");
+            return;
+        } catch (Exception e) {
+            System.out.println("====== read JFR recording \"" + jfr + "\" error, " + e + " ======\n");
+            return;
+        }
+        List<String> lines = summary.format();
+        System.out.println("====== JFR recording saved to " + jfr + " ======");
+        for ( String line : lines )
+            System.out.println(line);
+        try {
+            Files.write(new File(getRunDir(), SUMMARY_FILE).toPath(), lines, StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            System.out.println("====== save \"" + SUMMARY_FILE + "\" error, " + e + " ======");
+        }
+        System.out.println();
+    }
+
+    // 统计的类名前缀
+    private Set<String> getPrefixes() {
+        Set<String> prefixes = new LinkedHashSet<>();
+        if ( Util.checkEmpty(jfrFilter) != null ) {
+            for ( String prefix : jfrFilter.split(",") )
+                if ( !prefix.trim().isEmpty() )
+                    prefixes.add(prefix.trim());
+            return prefixes;
+        }
+        for ( Config.Service srv : services ) {
+            int index = srv.className.lastIndexOf('.');
+            prefixes.add(index > 0 ? srv.className.substring(0, index + 1) : srv.className);
+        }
+        return prefixes;
+    }
+}
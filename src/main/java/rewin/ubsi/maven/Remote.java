@@ -0,0 +1,159 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import rewin.ubsi.consumer.Context;
+import rewin.ubsi.container.Bootstrap;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 部署的目标容器
+ */
+class Remote {
+
+    final static int BATCH_SIZE = 200;      // 每次批量请求的调用数量上限
+
+    /** 批量调用中一个调用的结果 */
+    static class Result {
+        final Object value;
+        final Exception error;
+
+        Result(Object value, Exception error) {
+            this.value = value;
+            this.error = error;
+        }
+
+        /** 获得结果，调用失败时抛出异常 */
+        Object get() throws Exception {
+            if ( error != null )
+                throw error;
+            return value;
+        }
+    }
+
+    final String host;
+    final int port;
+
+    volatile boolean digest = true;     // 容器是否支持getJarDigest
+    volatile boolean failed = false;    // 是否有模块部署失败
+
+    ConcurrentHashMap<String, FutureTask<Void>> jarTasks = new ConcurrentHashMap<>();   // 每个JAR包只安装一次
+    ConcurrentHashMap<String, String> jarStates = new ConcurrentHashMap<>();    // 已经检查或安装的JAR包：不一致的原因，一致时为""
+    ConcurrentHashMap<String, Integer> hasJars = new ConcurrentHashMap<>();     // 批量预取的hasJar结果，使用一次后删除
+    ConcurrentHashMap<String, String> jarDigests = new ConcurrentHashMap<>();   // 批量预取的getJarDigest结果，使用一次后删除
+
+    private Set<String> features;       // 容器支持的扩展功能
+
+    Remote(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    /* 解析容器地址：host#port */
+    static Remote parse(String address) throws MojoExecutionException {
+        String host = "localhost";
+        int port = Bootstrap.DEFAULT_PORT;
+        int index = address.indexOf("#");
+        if ( index >= 0 && index < address.length() - 1 )
+            try {
+                port = Integer.parseInt(address.substring(index + 1));
+            } catch (Exception e) {
+                throw new MojoExecutionException("invalid container's address \"" + address + "\"");
+            }
+        if ( index > 0 )
+            host = address.substring(0, index);
+        else if ( index < 0 )
+            host = address;
+        return new Remote(host, port);
+    }
+
+    /** 容器地址 */
+    String getAddress() {
+        return host + "#" + port;
+    }
+
+    /** 调用容器的管理接口 */
+    Object call(String entry, Object... params) throws Exception {
+        long start = System.nanoTime();
+        try {
+            // 没有参数时与原来的调用一样发送null
+            return Context.request("", entry, params.length == 0 ? null : params).direct(host, port);
+        } finally {
+            Telemetry.request(entry, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * 批量调用管理接口：容器支持batch时每次请求发送多个调用，较早版本的容器逐个调用
+     * @param calls         每个调用为 { entry, params... }
+     * @param stopOnError   某个调用失败后是否跳过后面的调用（用于有先后依赖的调用）
+     * @return 与calls顺序一致的结果
+     */
+    List<Result> batch(List<Object[]> calls, boolean stopOnError) throws Exception {
+        List<Result> results = new ArrayList<>();
+        if ( calls.size() > 1 && hasFeature("batch") ) {
+            for ( int i = 0; i < calls.size(); i += BATCH_SIZE ) {
+                List<Object[]> part = calls.subList(i, Math.min(i + BATCH_SIZE, calls.size()));
+                if ( stopOnError && !results.isEmpty() && results.get(results.size() - 1).error != null ) {
+                    for ( int j = 0; j < part.size(); j ++ )
+                        results.add(new Result(null, new Exception("skipped")));
+                    continue;
+                }
+                Object res = call("batch", part.toArray(), stopOnError);    // 返回每个调用的 { 0, 结果 } 或 { 错误码, 错误信息 }
+                List<?> list = res instanceof Object[] ? Arrays.asList((Object[])res) : res instanceof List ? (List<?>)res : null;
+                if ( list == null || list.size() != part.size() )
+                    throw new Exception("invalid batch result from " + getAddress());
+                for ( Object item : list )
+                    results.add(toResult(item));
+            }
+            return results;
+        }
+        for ( Object[] c : calls ) {
+            if ( stopOnError && !results.isEmpty() && results.get(results.size() - 1).error != null ) {
+                results.add(new Result(null, new Exception("skipped")));
+                continue;
+            }
+            try {
+                results.add(new Result(call((String)c[0], Arrays.copyOfRange(c, 1, c.length)), null));
+            } catch (Exception e) {
+                results.add(new Result(null, e));
+            }
+        }
+        return results;
+    }
+
+    // 批量调用中一个调用的返回数据
+    private static Result toResult(Object item) {
+        List<?> pair = item instanceof Object[] ? Arrays.asList((Object[])item) : item instanceof List ? (List<?>)item : null;
+        if ( pair == null || pair.size() != 2 || !(pair.get(0) instanceof Number) )
+            return new Result(null, new Exception("invalid batch result: " + item));
+        int code = ((Number)pair.get(0)).intValue();
+        if ( code != 0 )
+            return new Result(null, new Exception("[" + code + "] " + pair.get(1)));
+        return new Result(pair.get(1), null);
+    }
+
+    /** 容器是否支持指定的扩展功能，通过getFeatures获得，较早版本的容器不支持任何扩展 */
+    synchronized boolean hasFeature(String name) {
+        if ( features == null ) {
+            features = new HashSet<>();
+            try {
+                Object res = call("getFeatures");
+                if ( res instanceof Object[] )
+                    res = Arrays.asList((Object[])res);
+                if ( res instanceof Collection )
+                    for ( Object o : (Collection<?>)res )
+                        features.add(String.valueOf(o));
+            } catch (Exception e) {
+            }
+        }
+        return features.contains(name);
+    }
+
+    @Override
+    public String toString() {
+        return getAddress();
+    }
+}
@@ -0,0 +1,79 @@
+package rewin.ubsi.maven;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 资源文件打包：小文件压缩到一个ZIP文件中一次上传，由容器解压后删除，大文件仍然单独分块上传
+ *
+ * 压缩包中包含所有子目录的条目，解压时可以创建空目录
+ */
+class ResourcePack {
+
+    final static String PACK_FILE = ".ubsi-resource.zip";     // 上传到容器的压缩包文件名
+
+    /** 单独上传的文件 */
+    static class Item {
+        String  path;       // 相对于资源目录的路径，""表示根目录
+        File    file;
+    }
+
+    File        zip;                            // 小文件的压缩包，没有小文件时为null
+    int         packed = 0;                     // 压缩包中的文件数量
+    int         dirs = 0;                       // 压缩包中的目录数量
+    List<Item>  large = new ArrayList<>();      // 单独上传的大文件
+
+    /** 打包资源目录，长度小于threshold的文件放入压缩包 */
+    static ResourcePack build(File dir, long threshold) throws IOException {
+        ResourcePack pack = new ResourcePack();
+        File zip = File.createTempFile("ubsi-resource", ".zip");
+        zip.deleteOnExit();
+        try (ZipOutputStream out = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)))) {
+            pack.add(out, dir, "", threshold);
+        } catch (IOException e) {
+            zip.delete();
+            throw e;
+        }
+        if ( pack.packed > 0 || pack.dirs > 0 )
+            pack.zip = zip;
+        else
+            zip.delete();
+        return pack;
+    }
+
+    /** 删除临时文件 */
+    void delete() {
+        if ( zip != null )
+            zip.delete();
+    }
+
+    // 遍历目录
+    private void add(ZipOutputStream out, File dir, String path, long threshold) throws IOException {
+        for ( File file : dir.listFiles() ) {
+            if ( file.isDirectory() ) {
+                String sub = (path.isEmpty() ? "" : (path + "/")) + file.getName();
+                out.putNextEntry(new ZipEntry(sub + "/"));
+                out.closeEntry();
+                dirs ++;
+                add(out, file, sub, threshold);
+            }
+            if ( !file.isFile() )
+                continue;
+            if ( file.length() >= threshold ) {
+                Item item = new Item();
+                item.path = path;
+                item.file = file;
+                large.add(item);
+                continue;
+            }
+            out.putNextEntry(new ZipEntry((path.isEmpty() ? "" : (path + "/")) + file.getName()));
+            Files.copy(file.toPath(), out);
+            out.closeEntry();
+            packed ++;
+        }
+    }
+}
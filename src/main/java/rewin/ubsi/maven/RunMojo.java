@@ -3,20 +3,24 @@ package rewin.ubsi.maven;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.*;
+import rewin.ubsi.common.Codec;
 import rewin.ubsi.common.Util;
 import rewin.ubsi.consumer.Context;
+import rewin.ubsi.container.Bootstrap;
 import rewin.ubsi.container.Info;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
- * 启动容器并加载指定的微服务/过滤器：mvn ubsi:run -Dport={端口号} -Ddir={目标目录} -Dclass={微服务/过滤器的className}
+ * 启动容器并加载指定的微服务/过滤器：mvn ubsi:run -Dport={端口号} -Ddir={目标目录} -Dclass={微服务/过滤器的className} -Dwatch
  */
 @Mojo(
         name = "run",
@@ -31,6 +35,8 @@ public class RunMojo extends AbstractUbsiMojo {
     private final static String LIB_PATH = "rewin.ubsi.libs";               // JAR包所在目录
     private final static String SYS_PATH = "core-libs";                     // 容器运行时的JAR包所在目录
     private final static String RUN_PATH = "maven-run";                     // 容器运行目录
+    private final static String CONTAINER_LOG = "ubsi-container.log";       // 容器输出的日志文件
+    private final static int LOG_FILES = 5;                                 // 保留的历史日志文件数量
 
     private final static String CONSUMER_FILE = "rewin.ubsi.consumer.json";
     private final static String ROUTER_FILE = "rewin.ubsi.router.json";
@@ -57,9 +63,72 @@ public class RunMojo extends AbstractUbsiMojo {
     @Parameter( property = "dir", defaultValue = RUN_PATH)
     private String dir;         // 容器的运行目录
 
+    /* 是否使用硬链接代替复制core-libs中的JAR包（容器不会写入的目录），可以使用 -Dubsi.link=true 来指定 */
+    @Parameter( property = "ubsi.link", defaultValue = "false")
+    private boolean link;
+
+    /* 监视模式：编译输出、JAR包、资源文件有变化时重新部署到运行中的容器，可以使用 -Dwatch 来指定 */
+    @Parameter( property = "watch", defaultValue = "false")
+    private boolean watch;
+
+    private final static long WATCH_DEBOUNCE = 500;     // 连续变化的合并时间（毫秒）
+    private final static long PROBE_INTERVAL = 200;     // 探测容器是否就绪的间隔（毫秒）
+    private final static long STOP_TIMEOUT = 10;        // 等待容器正常退出的时间（秒）
+    private final static Pattern PORT_PATTERN = Pattern.compile("\"port\"\\s*:\\s*(\\d+)");
+
+    /* 容器JVM的启动方案（dev：快速启动，prod：类生产环境的GC及堆设置），可以使用 -Dubsi.profile={xxx} 来指定 */
+    @Parameter( property = "ubsi.profile")
+    private String launchProfile;
+
+    /* 容器JVM的自定义参数（以空白字符分隔），可以使用 -Dubsi.jvmArgs="{xxx}" 来指定 */
+    @Parameter( property = "ubsi.jvmArgs")
+    private String jvmArgs;
+
+    /* 容器使用的java命令，缺省为运行Maven的JVM（${java.home}/bin/java），可以使用 -Dubsi.java={xxx} 来指定 */
+    @Parameter( property = "ubsi.java")
+    private String javaExecutable;
+
+    /* 是否生成并使用容器的AppCDS归档（core-libs变化时重新生成），可以使用 -Dubsi.appcds=true 来指定 */
+    @Parameter( property = "ubsi.appcds", defaultValue = "false")
+    private boolean appCds;
+
+    /* 在Maven的JVM中使用独立的ClassLoader运行容器（不启动新进程），ubsi-core没有Bootstrap.start(String)时（如2.3.2）
+       容器只能使用Maven的当前目录，必须同时指定-Ddir=.（core-libs、容器配置及模块会同步到项目目录中），
+       可以使用 -Dubsi.inProcess=true 来指定 */
+    @Parameter( property = "ubsi.inProcess", defaultValue = "false")
+    private boolean inProcess;
+
+    /* 后台运行容器：容器在Maven退出后继续运行，再次执行时只重新部署有变化的模块，可以使用 -Dubsi.daemon=true 来指定 */
+    @Parameter( property = "ubsi.daemon", defaultValue = "false")
+    private boolean daemon;
+
+    /* 容器输出的缓冲行数，缓冲区满时丢弃最早的行，可以使用 -Dubsi.logBuffer={xxx} 来指定 */
+    @Parameter( property = "ubsi.logBuffer", defaultValue = "10000")
+    private int logBuffer;
+
+    /* 控制台输出的最低日志级别（DEBUG/INFO/WARN/ERROR），可以使用 -Dubsi.logLevel={xxx} 来指定 */
+    @Parameter( property = "ubsi.logLevel", defaultValue = "DEBUG")
+    private String logLevel;
+
+    /* 是否将容器输出写到运行目录的ubsi-container.log，可以使用 -Dubsi.logFile=true 来指定 */
+    @Parameter( property = "ubsi.logFile", defaultValue = "false")
+    private boolean logFile;
+
+    /* 日志文件的滚动大小（字节），可以使用 -Dubsi.logFileSize={xxx} 来指定 */
+    @Parameter( property = "ubsi.logFileSize", defaultValue = "10485760")
+    private long logFileSize;
+
+    /* 等待容器就绪及模块启动的超时时间（秒），可以使用 -Dubsi.startTimeout={xxx} 来指定 */
+    @Parameter( property = "ubsi.startTimeout", defaultValue = "60")
+    private int startTimeout;
+
+    private Stager stager;      // 运行目录的增量同步
     private Map<String,String> configMap = new HashMap<>();     // 有配置参数的服务/过滤器
     private Process process;    // 容器的运行进程
-    private int status = 0;     // 容器是否已经启动
+    private InProcessContainer container;   // 进程内运行的容器
+    private volatile int status = 0;    // 容器是否已经启动
+    private volatile boolean ready = false;     // 容器就绪并且模块配置完成
+    private volatile boolean stopping = false;  // 容器是否由插件主动停止
 
     // 转换数据结构
     private Info.Lib artifact2Lib(Artifact artifact, File jar) throws MojoExecutionException {
@@ -72,23 +141,15 @@ public class RunMojo extends AbstractUbsiMojo {
         return lib;
     }
 
-    // 目录复制
-    private void copyDir(File srcDir, File destDir) throws Exception {
+    // 收集资源目录中的文件
+    private void collectDir(File srcDir, String name, Map<String, File> files) throws Exception {
         if ( !srcDir.exists() || !srcDir.isDirectory() )
             throw new Exception("resource_path \"" + srcDir + "\" not found.");
-
-        Util.rmdir(destDir);
-        destDir.mkdirs();
-        for ( File file : srcDir.listFiles() ) {
-            if ( file.isDirectory() )
-                copyDir(file, new File(destDir, file.getName()));
-            else if ( file.isFile() )
-                Files.copy(file.toPath(), new File(destDir, file.getName()).toPath());
-        }
+        Stager.collect(srcDir, name, files);
     }
 
     // 处理模块
-    private Module dealModule(Config.Service srv, Info.Lib lib, File modulePath) throws Exception {
+    private Module dealModule(Config.Service srv, Info.Lib lib, Map<String, File> files) throws Exception {
         Module module = new Module();
         module.class_name = srv.className;
         module.jar_lib = new Info.GAV(lib.groupId, lib.artifactId, lib.version);
@@ -100,51 +161,44 @@ public class RunMojo extends AbstractUbsiMojo {
         } else
             module.startup = true;
         if ( Util.checkEmpty(srv.resourcePath) != null )
-            copyDir(new File(srv.resourcePath), new File(modulePath, name));    // 复制资源文件
+            collectDir(new File(srv.resourcePath), name, files);    // 需要复制的资源文件
         return module;
     }
 
-    // 添加一个core依赖包，保留更高的version
-    private void addCore(Set<Artifact> core, Artifact artifact) {
-        Artifact jar = null;
-        boolean is_ubsi_core = isUbsiCore(artifact.getArtifactId());
-        for ( Artifact art : core ) {
-            if ( is_ubsi_core && isUbsiCore(art.getArtifactId()) ) {
-                jar = art;
-                break;
-            }
-            if ( art.getGroupId().equals(artifact.getGroupId()) && art.getArtifactId().equals(artifact.getArtifactId()) ) {
-                jar = art;
-                break;
-            }
+    // 检查进程内运行的目录：ubsi-core不支持指定工作目录时，运行目录必须是当前目录（在同步运行目录之前检查）
+    private void checkInProcess() throws MojoExecutionException {
+        CoreResolver core = new CoreResolver(this::isUbsiCore);
+        for ( Artifact artifact : project.getArtifacts() )
+            if ( isSysLib(artifact.getGroupId(), artifact.getArtifactId()) )
+                core.add(artifact);
+        List<File> jars = new ArrayList<>();
+        String version = null;
+        for ( Artifact artifact : core.getArtifacts() ) {
+            jars.add(checkArtifact(artifact));
+            if ( isUbsiCore(artifact.getArtifactId()) )
+                version = artifact.getArtifactId() + ":" + artifact.getVersion();
         }
-        if ( jar == null ) {
-            core.add(artifact);
+        if ( InProcessContainer.canStartInDir(jars) )
             return;
+        boolean current;
+        try {
+            current = new File(dir).getCanonicalFile().equals(new File(".").getCanonicalFile());
+        } catch (Exception e) {
+            current = false;
         }
-
-        int compare = artifact.getVersion().compareTo(jar.getVersion());
-        if ( is_ubsi_core ) {
-            if ( compare < 0 )
-                return;
-            if ( compare == 0 ) {
-                if ( artifact.getArtifactId().equals(jar.getArtifactId()) )
-                    return;
-                if ( jar.getArtifactId().contains("rewin") )
-                    return;
-            }
-        } else if ( compare <= 0 )
-            return;
-        core.remove(jar);
-        core.add(artifact);
+        if ( !current )
+            throw new MojoExecutionException(version + " has no Bootstrap.start(String), ubsi.inProcess can only run in the current directory, " +
+                    "use -Ddir=. (core-libs, container config and modules will be staged into it) or run without ubsi.inProcess");
+        getLog().warn(version + " runs in-process in the current directory, core-libs, container config and modules are staged into " +
+                new File(dir).getAbsolutePath());
     }
 
     // 处理JAR包及依赖关系
     private void dealDependency() throws MojoExecutionException {
-        Set<Artifact> core = new HashSet<>();
+        CoreResolver core = new CoreResolver(this::isUbsiCore);
         for ( Artifact artifact : project.getArtifacts() )
             if ( isSysLib(artifact.getGroupId(), artifact.getArtifactId()) )
-                addCore(core, artifact);
+                core.add(artifact);
 
         Set<Info.Lib> all = new HashSet<>();
         Set<File> jars = new HashSet<>();
@@ -154,7 +208,7 @@ public class RunMojo extends AbstractUbsiMojo {
             // 处理依赖的JAR包
             for ( Artifact artDep : deps ) {
                 if ( isSysLib(artDep.getGroupId(), artDep.getArtifactId()) ) {
-                    addCore(core, artDep);
+                    core.add(artDep);
                     continue;
                 }
                 File jarDep = checkArtifact(artDep);
@@ -181,6 +235,9 @@ public class RunMojo extends AbstractUbsiMojo {
             jars.add(jarSrv);
         }
 
+        for ( String conflict : core.getConflicts() )
+            getLog().info("core-libs: " + conflict);
+
         // 保存JAR包依赖关系
         try {
             Util.saveJsonFile(new File(dir, LIB_FILE), all);
@@ -188,20 +245,18 @@ public class RunMojo extends AbstractUbsiMojo {
             throw new MojoExecutionException("save \"" + LIB_FILE + "\" error", e);
         }
 
-        // 复制JAR包到LIB目录
+        // 同步JAR包到LIB目录
         try {
-            File libDir = new File(dir, LIB_PATH);
-            Util.rmdir(libDir);
-            libDir.mkdirs();
+            Map<String, File> libs = new HashMap<>();
             for ( File f : jars )
-                Files.copy(f.toPath(), new File(libDir, f.getName()).toPath());
-            File sysDir = new File(dir, SYS_PATH);
-            Util.rmdir(sysDir);
-            sysDir.mkdirs();
-            for ( Artifact artifact : core ) {
+                libs.put(f.getName(), f);
+            stager.sync(new File(dir, LIB_PATH), libs, false);
+            Map<String, File> sys = new HashMap<>();
+            for ( Artifact artifact : core.getArtifacts() ) {
                 File f = checkArtifact(artifact);
-                Files.copy(f.toPath(), new File(sysDir, f.getName()).toPath());
+                sys.put(f.getName(), f);
             }
+            stager.sync(new File(dir, SYS_PATH), sys, true);
         } catch (MojoExecutionException e) {
             throw e;
         } catch (Exception e) {
@@ -210,16 +265,14 @@ public class RunMojo extends AbstractUbsiMojo {
 
         // 设置容器需要加载的模块
         try {
-            File modulePath = new File(dir, MODULE_PATH);
-            Util.rmdir(modulePath);
-
+            Map<String, File> files = new HashMap<>();
             Modules modules = new Modules();
             for ( Config.Service srv : services ) {
                 if ( srv.name != null && modules.services == null )
                     modules.services = new HashMap<>();
                 else if ( srv.name == null && modules.filters == null )
                     modules.filters = new ArrayList<>();
-                Module module = dealModule(srv, artifact2Lib(getArtifact(srv), null), modulePath);
+                Module module = dealModule(srv, artifact2Lib(getArtifact(srv), null), files);
                 if ( srv.name != null ) {
                     if ( modules.services == null )
                         modules.services = new HashMap<>();
@@ -230,10 +283,15 @@ public class RunMojo extends AbstractUbsiMojo {
                     modules.filters.add(module);
                 }
             }
+            stager.sync(new File(dir, MODULE_PATH), files, false);
             Util.saveJsonFile(new File(dir, MODULE_FILE), modules);
         } catch (Exception e) {
             throw new MojoExecutionException("deal module error", e);
+        } finally {
+            stager.save();
         }
+        getLog().info("stage " + dir + ": " + stager.copied + " copied, " + stager.linked + " linked, " +
+                stager.unchanged + " unchanged, " + stager.deleted + " deleted");
     }
 
     // 处理配置文件
@@ -255,112 +313,467 @@ public class RunMojo extends AbstractUbsiMojo {
         }
     }
 
+    // 容器JVM的参数：启动方案、自定义参数、AppCDS归档
+    private List<String> getJvmArgs(LaunchProfile.Jvm jvm) throws MojoExecutionException {
+        List<String> args = new ArrayList<>();
+        if ( Util.checkEmpty(launchProfile) != null )
+            args.addAll(LaunchProfile.getProfile(launchProfile.trim()));
+        args.addAll(LaunchProfile.split(jvmArgs));
+        args.addAll(getExtraJvmArgs());
+        if ( appCds ) {
+            List<String> cds = LaunchProfile.getAppCds(new File(dir), new File(dir, SYS_PATH), jvm);
+            if ( cds.isEmpty() )
+                getLog().warn("AppCDS requires Java 13+ (" + jvm.executable + " is " + jvm.version + "), ignored");
+            args.addAll(cds);
+        }
+        return args;
+    }
+
+    /** 子类附加的容器JVM参数 */
+    protected List<String> getExtraJvmArgs() throws MojoExecutionException {
+        return Collections.emptyList();
+    }
+
+    /** 容器就绪并且模块配置完成后的回调 */
+    protected void onReady() {
+    }
+
+    /** 容器退出后的回调（可能在JVM退出的Hook中执行） */
+    protected void onStopped() {
+    }
+
+    /** 容器的运行目录 */
+    protected File getRunDir() {
+        return new File(dir);
+    }
+
+    /** 是否在Maven的JVM中运行容器 */
+    protected boolean isInProcess() {
+        return inProcess;
+    }
+
+    /** 是否后台运行容器 */
+    protected boolean isDaemon() {
+        return daemon;
+    }
+
+    /** 正常停止容器，execute()在容器退出后返回 */
+    protected void stopContainer() {
+        stopping = true;
+        if ( container != null )
+            container.stop(STOP_TIMEOUT * 1000);
+        else if ( process != null && process.isAlive() ) {
+            process.destroy();
+            try {
+                if ( !process.waitFor(STOP_TIMEOUT, TimeUnit.SECONDS) )
+                    process.destroyForcibly();
+            } catch (Exception e) {
+            }
+        }
+    }
+
     /** 模块运行 */
     public void execute() throws MojoExecutionException {
-        System.out.println("\n> mvn ubsi:run -Dport={listener_port} -Ddir={run_path} -Dclass={module_className}");
+        System.out.println("\n> mvn ubsi:run -Dport={listener_port} -Ddir={run_path} -Dclass={module_className} -Dwatch");
 
         prepare();
 
         dir = Util.checkEmpty(dir);
         if ( dir == null )
             dir = RUN_PATH;
+        if ( inProcess && port != 0 )
+            throw new MojoExecutionException("-Dport can't be used with ubsi.inProcess, set \"port\" in " + CONTAINER_FILE);
+
+        if ( daemon ) {
+            if ( inProcess )
+                throw new MojoExecutionException("ubsi.daemon can't be used with ubsi.inProcess");
+            if ( attachDaemon(new File(dir)) ) {
+                System.out.println();
+                return;
+            }
+        }
 
+        if ( inProcess )
+            checkInProcess();
+        stager = new Stager(new File(dir), link);
         dealDependency();
         dealConfigFile();
 
+        long launched = System.currentTimeMillis();
+        if ( daemon ) {
+            startDaemon(launched);
+            return;
+        }
+
         System.out.println("\n====== start ubsi-container, press CTRL-C to exit ======");
+        LogPipe logPipe = inProcess ? startInProcess(launched) : startProcess(launched);
 
-        try {
-            String cmd;
-            ProcessBuilder builder;
-            if ( port == 0 ) {
-                builder = new ProcessBuilder("java", "-cp", SYS_PATH + File.separator + "*", "rewin.ubsi.container.Bootstrap");
-                cmd = "java -cp " + SYS_PATH + File.separator + "* rewin.ubsi.container.Bootstrap";
-            } else {
-                builder = new ProcessBuilder("java", "-cp", SYS_PATH + File.separator + "*", "-Dubsi.port=" + port, "rewin.ubsi.container.Bootstrap");
-                cmd = "java -cp " + SYS_PATH + File.separator + "* -Dubsi.port=" + port + "rewin.ubsi.container.Bootstrap";
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {     // JVM退出时的Hook
+            if ( stopping && !isAlive() )
+                return;     // 容器已经由插件停止
+            if ( container != null )
+                container.stop(STOP_TIMEOUT * 1000);
+            else if ( process.isAlive() ) {
+                process.destroy();      // 正常退出，容器可以在退出时生成AppCDS归档
+                try {
+                    if ( !process.waitFor(STOP_TIMEOUT, TimeUnit.SECONDS) )
+                        process.destroyForcibly().waitFor();
+                } catch (Exception e) {
+                }
             }
+            if ( logPipe != null )
+                logPipe.close(1000);
+            if ( status == 0 )
+                System.out.println("\n====== ubsi-container not start ======\n");
+            else
+                System.out.println("\n====== ubsi-container stopped ======\n");
+            onStopped();
+        }));
+
+        if ( watch ) {
+            Thread watcher = new Thread(this::watch, "ubsi-watch");
+            watcher.setDaemon(true);
+            watcher.start();
+        }
+
+        try {
+            if ( container != null )
+                container.waitFor();
+            else
+                process.waitFor();
+        } catch (Exception e) {
+        }
+        if ( stopping ) {
+            if ( logPipe != null )
+                logPipe.close(1000);
+            System.out.println("\n====== ubsi-container stopped ======\n");
+            onStopped();
+            return;
+        }
+        throw new MojoExecutionException("ubsi-container start error!");
+    }
+
+    // 启动容器进程，后台运行时输出到运行目录的日志文件
+    private void launch(boolean background) throws MojoExecutionException {
+        List<String> command = new ArrayList<>();
+        LaunchProfile.Jvm jvm = LaunchProfile.getJvm(Util.checkEmpty(javaExecutable));
+        command.add(jvm.executable);
+        command.addAll(getJvmArgs(jvm));
+        command.add("-cp");
+        command.add(SYS_PATH + File.separator + "*");
+        if ( port != 0 )
+            command.add("-Dubsi.port=" + port);
+        command.add(InProcessContainer.BOOTSTRAP);
+
+        try {
+            String cmd = String.join(" ", command);
+            ProcessBuilder builder = new ProcessBuilder(command);
 
             System.out.println("    > cd " + dir);
             System.out.println("    > " + cmd + "\n");
 
             builder.redirectErrorStream(true);
+            if ( background )
+                builder.redirectOutput(ProcessBuilder.Redirect.appendTo(new File(dir, CONTAINER_LOG)));
             builder.directory(new File(dir));
             process = builder.start();
         } catch (Exception e) {
             throw new MojoExecutionException("start container error, " + e);
         }
+    }
 
-        new Thread(() -> {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            try {
-                String s;
-                while ((s = reader.readLine()) != null) {
-                    System.out.println(s);      // 截获container进程的输出
-                    checkOutput(s);
-                }
-            } catch (IOException e) {
-                System.out.println("====== container-output error, " + e + " ======");
-            }
-        }).start();
+    // 启动容器进程，返回截获进程输出的LogPipe
+    private LogPipe startProcess(long launched) throws MojoExecutionException {
+        launch(false);
 
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {     // JVM退出时的Hook
-            if ( process.isAlive() ) {
-                process.destroyForcibly();
-                while ( process.isAlive() )
-                    try { Thread.sleep(100); } catch (Exception e) {}
-            }
-            if ( status == 0 )
-                System.out.println("\n====== ubsi-container not start ======\n");
-            else
-                System.out.println("\n====== ubsi-container stopped ======\n");
-        }));
+        // 截获container进程的输出
+        LogPipe logPipe = new LogPipe(process.getInputStream(), System.out, logBuffer, logLevel,
+                logFile ? new File(dir, CONTAINER_LOG) : null, logFileSize, LOG_FILES);
+        logPipe.start();
 
-        try { process.waitFor(); } catch (Exception e) {}
-        throw new MojoExecutionException("ubsi-container start error!");
+        Thread prober = new Thread(() -> probe(launched), "ubsi-probe");
+        prober.setDaemon(true);
+        prober.start();
+        return logPipe;
     }
 
-    // 检查ubsi-contianer的日志输出，获得监听端口
-    void checkOutput(String s) {
-        if ( status > 0 )
-            return;
-        if ( !s.matches("^\\[INFO].*rewin\\.ubsi\\.container\\.Bootstrap#start\\(\\)#[0-9]*.*startup.*$") )
-            return;
+    // 启动后台运行的容器，就绪后记录进程号、端口及模块的指纹
+    private void startDaemon(long launched) throws MojoExecutionException {
+        if ( watch )
+            getLog().warn("-Dwatch is ignored in daemon mode");
+        System.out.println("\n====== start ubsi-container in background ======");
+        launch(true);
+        probe(launched);
+        if ( status == 0 ) {
+            process.destroyForcibly();
+            throw new MojoExecutionException("ubsi-container start error, see \"" + new File(dir, CONTAINER_LOG) + "\"");
+        }
+        Daemon daemon = new Daemon();
+        daemon.pid = Daemon.getPid(process);
+        daemon.started = Daemon.getStartTime(daemon.pid);
+        daemon.port = port;
+        Deployer deployer = new Deployer(this, null, null, new DigestCache(outputDirectory));
+        try {
+            for ( Config.Service srv : services ) {
+                Deployer.Task task = deployer.getTask(srv);
+                daemon.modules.put(task.mname, deployer.fingerprint(task));
+            }
+            daemon.save(new File(dir));
+        } catch (Exception e) {
+            throw new MojoExecutionException("save \"" + Daemon.DAEMON_FILE + "\" error", e);
+        } finally {
+            deployer.digestCache.save();
+        }
+        System.out.println("====== ubsi-container running in background" + (daemon.pid > 0 ? ", pid " + daemon.pid : "") +
+                ", port " + port + ", output to " + CONTAINER_LOG + ", stop by: mvn ubsi:stop ======\n");
+    }
 
-        status = 1;
-        if ( configMap.isEmpty() )
-            return;
+    // 在Maven的JVM中启动容器，容器直接输出到控制台
+    private LogPipe startInProcess(long launched) throws MojoExecutionException {
+        if ( Util.checkEmpty(launchProfile) != null || Util.checkEmpty(jvmArgs) != null || Util.checkEmpty(javaExecutable) != null || appCds || logFile )
+            getLog().warn("ubsi.profile/ubsi.jvmArgs/ubsi.java/ubsi.appcds/ubsi.logFile are ignored in in-process mode");
+        System.out.println("    > " + InProcessContainer.BOOTSTRAP + ".start() in " + dir + "\n");
+        container = new InProcessContainer(new File(dir), new File(dir, SYS_PATH));
+        try {
+            container.start(new InProcessContainer.Listener() {
+                public void started() {
+                    configureInProcess(launched);
+                }
+                public void failed(Throwable e) {
+                    System.out.println("====== start in-process ubsi-container error, " + e + " ======");
+                }
+            });
+        } catch (Exception e) {
+            throw new MojoExecutionException("start in-process container error, " + e);
+        }
+        return null;
+    }
+
+    // 容器是否在运行
+    private boolean isAlive() {
+        return container != null ? container.isAlive() : process.isAlive();
+    }
 
-        int index = s.indexOf("#");
-        int tail = s.length();
-        for ( int i = index + 1; i < tail; i ++ ) {
-            char c = s.charAt(i);
-            if ( c < '0' || c > '9' ) {
-                tail = i;
-                break;
+    // 监视变化并重新部署
+    private void watch() {
+        while ( !ready && isAlive() )
+            try { Thread.sleep(200); } catch (Exception e) { return; }
+
+        File classes = new File(project.getBuild().getOutputDirectory());
+        File jar = getProjectJar();
+        List<Path> configs = new ArrayList<>();
+        Map<Path, Config.Service> jars = new HashMap<>();       // 依赖项的JAR包
+        Map<Path, Config.Service> resources = new HashMap<>();  // 模块的资源目录
+        try (Watcher watcher = new Watcher()) {
+            if ( jar != null ) {
+                watcher.watchTree(classes.toPath());
+                watcher.watchFile(jar.toPath());
             }
+            for ( Config.Service srv : services ) {
+                if ( srv.artifact != null ) {
+                    Path path = checkArtifact(getArtifact(srv)).toPath().toAbsolutePath().normalize();
+                    jars.put(path, srv);
+                    watcher.watchFile(path);
+                }
+                if ( Util.checkEmpty(srv.resourcePath) != null ) {
+                    Path path = new File(srv.resourcePath).toPath().toAbsolutePath().normalize();
+                    resources.put(path, srv);
+                    watcher.watchTree(path);
+                }
+            }
+            for ( String name : new String[] { CONSUMER_FILE, ROUTER_FILE, LOG_FILE, CONTAINER_FILE, ACL_FILE } ) {
+                Path path = new File(name).toPath().toAbsolutePath().normalize();
+                configs.add(path);
+                watcher.watchFile(path);
+            }
+            System.out.println("====== watching for changes ======");
+
+            Path classesPath = classes.toPath().toAbsolutePath().normalize();
+            Path jarPath = jar == null ? null : jar.toPath().toAbsolutePath().normalize();
+            long built = jar == null ? 0 : jar.lastModified();     // 最近一次重新生成JAR包的时间
+            while ( isAlive() ) {
+                Set<Path> changed = watcher.poll(WATCH_DEBOUNCE);
+                Set<Config.Service> modules = new LinkedHashSet<>();
+                boolean rebuild = false, config = false;
+                for ( Path path : changed ) {
+                    if ( jarPath != null && path.startsWith(classesPath) )
+                        rebuild = true;
+                    else if ( path.equals(jarPath) && jar.lastModified() != built )
+                        addProjectModules(modules);
+                    else if ( jars.containsKey(path) )
+                        modules.add(jars.get(path));
+                    else if ( configs.contains(path) )
+                        config = true;
+                    else
+                        for ( Map.Entry<Path, Config.Service> entry : resources.entrySet() )
+                            if ( path.startsWith(entry.getKey()) )
+                                modules.add(entry.getValue());
+                }
+                try {
+                    if ( rebuild ) {
+                        System.out.println("====== " + classes + " changed, rebuild " + jar.getName() + " ======");
+                        Watcher.rebuildJar(classes, jar);
+                        built = jar.lastModified();
+                        addProjectModules(modules);
+                    }
+                    if ( config ) {
+                        dealConfigFile();
+                        System.out.println("====== configuration files changed, restart ubsi-container to apply ======");
+                    }
+                    if ( !modules.isEmpty() )
+                        redeploy(modules);
+                } catch (Exception e) {
+                    System.out.println("====== watch error, " + e + " ======");
+                }
+            }
+        } catch (InterruptedException e) {
+        } catch (Exception e) {
+            System.out.println("====== watch error, " + e + " ======");
         }
+    }
+
+    // 使用项目JAR包的模块
+    private void addProjectModules(Set<Config.Service> modules) {
+        for ( Config.Service srv : services )
+            if ( srv.artifact == null )
+                modules.add(srv);
+    }
+
+    // 重新部署模块到运行中的容器
+    private void redeploy(Set<Config.Service> modules) {
+        List<String> names = new ArrayList<>();
+        for ( Config.Service srv : modules )
+            names.add(srv.name == null ? srv.className : srv.name);
+        System.out.println("====== redeploy " + names + " ======");
+        ChunkUploader uploader = new ChunkUploader(4, 2, ChunkUploader.CHUNK_SIZE, true);
         try {
-            port = Integer.parseInt(s.substring(index + 1, tail));
+            Context.startup(".");
+            Remote remote = new Remote("localhost", port);
+            Deployer deployer = new Deployer(this, uploader, new Compression(0), new DigestCache(outputDirectory));
+            Info.Runtime info = Codec.toType(remote.call("getRuntime"), Info.Runtime.class);
+            for ( Config.Service srv : modules ) {
+                Deployer.Task task = deployer.getTask(srv);
+                task.force = true;
+                try {
+                    deployer.uninstall(remote, task, info);
+                    deployer.deploy(remote, task);
+                } catch (Exception e) {
+                    System.out.println("====== redeploy \"" + task.mname + "\" error, " + e + " ======");
+                }
+            }
+            deployer.digestCache.save();
         } catch (Exception e) {
-            System.out.println("====== invalid container's port! ======");
-            return;
+            System.out.println("====== redeploy error, " + e + " ======");
+        } finally {
+            uploader.shutdown();
+            try { Context.shutdown(); } catch (Exception e) {}
         }
+    }
 
-        System.out.println("====== ubsi-container started, waiting for " + configMap.keySet() + " to config ======");
+    // 获得容器的监听端口：-Dport参数、运行目录中容器配置文件的"port"，或者缺省端口
+    private int getContainerPort() {
+        if ( port != 0 )
+            return port;
+        File file = new File(dir, CONTAINER_FILE);
+        if ( checkFile(file) ) {
+            try {
+                Matcher m = PORT_PATTERN.matcher(new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+                if ( m.find() )
+                    return Integer.parseInt(m.group(1));
+            } catch (Exception e) {
+            }
+        }
+        return Bootstrap.DEFAULT_PORT;
+    }
 
+    // 探测容器是否就绪，然后并行设置模块的配置参数并启动
+    private void probe(long launched) {
+        port = getContainerPort();
         try {
             Context.startup(".");
-            for ( String name : configMap.keySet() ) {
-                Context.request("", "setConfig", name, configMap.get(name)).direct("localhost", port);
-                Context.request("", "setStatus", name, 1).direct("localhost", port);
+        } catch (Exception e) {
+            System.out.println("====== probe error, " + e + " ======");
+            return;
+        }
+        try {
+            Remote remote = new Remote("localhost", port);
+            long deadline = launched + startTimeout * 1000L;
+            while ( true ) {
+                if ( !isAlive() )
+                    return;
+                try {
+                    remote.call("getRuntime");
+                    break;
+                } catch (Exception e) {
+                }
+                if ( System.currentTimeMillis() > deadline ) {
+                    System.out.println("====== ubsi-container not ready on port " + port + " in " + startTimeout + "s ======");
+                    return;
+                }
+                try { Thread.sleep(PROBE_INTERVAL); } catch (Exception e) { return; }
             }
+            status = 1;
+            System.out.println("====== ubsi-container ready on port " + port + " in " + (System.currentTimeMillis() - launched) + "ms ======");
+            configure(remote, launched, deadline);
+        } finally {
+            try { Context.shutdown(); } catch (Exception e) {}
+        }
+        ready = true;
+        onReady();
+    }
+
+    // 进程内容器的启动回调：不需要探测，直接设置模块的配置参数并启动
+    private void configureInProcess(long launched) {
+        port = getContainerPort();
+        status = 1;
+        System.out.println("====== ubsi-container started in-process on port " + port + " in " + (System.currentTimeMillis() - launched) + "ms ======");
+        try {
+            Context.startup(".");
+            configure(new Remote("localhost", port), launched, launched + startTimeout * 1000L);
         } catch (Exception e) {
             System.out.println("====== config error, " + e + " ======");
+        } finally {
+            try { Context.shutdown(); } catch (Exception e) {}
         }
-        try { Context.shutdown(); } catch (Exception e) {}
+        ready = true;
+        onReady();
+    }
 
-        System.out.println("====== " + configMap.keySet() + " config and start over ======");
+    // 并行设置模块的配置参数并启动，输出每个模块的就绪时间
+    private void configure(Remote remote, long launched, long deadline) {
+        if ( configMap.isEmpty() )
+            return;
+        System.out.println("====== waiting for " + configMap.keySet() + " to config ======");
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(configMap.size(), 8), r -> {
+            Thread t = new Thread(r, "ubsi-config");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            Map<String, Future<Long>> futures = new LinkedHashMap<>();     // 模块的就绪时间，启动失败时为null
+            for ( Map.Entry<String, String> entry : configMap.entrySet() )
+                futures.put(entry.getKey(), pool.submit(() -> {
+                    remote.call("setConfig", entry.getKey(), entry.getValue());
+                    Boolean res = (Boolean)remote.call("setStatus", entry.getKey(), 1);
+                    return res != null && res ? System.currentTimeMillis() - launched : null;
+                }));
+            for ( Map.Entry<String, Future<Long>> entry : futures.entrySet() ) {
+                String name = entry.getKey();
+                try {
+                    Long ready = entry.getValue().get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if ( ready != null )
+                        System.out.println("====== \"" + name + "\" config and start over, ready in " + ready + "ms ======");
+                    else
+                        System.out.println("====== \"" + name + "\" start failure ======");
+                } catch (TimeoutException e) {
+                    System.out.println("====== \"" + name + "\" config timeout ======");
+                } catch (Exception e) {
+                    System.out.println("====== \"" + name + "\" config error, " + (e instanceof ExecutionException ? e.getCause() : e) + " ======");
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
 }
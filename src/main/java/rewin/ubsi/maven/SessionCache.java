@@ -0,0 +1,30 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.execution.MavenSession;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 一次Maven构建（MavenSession）中共用的目标容器：reactor中的多个项目部署到相同的容器时，
+ * 共用容器的扩展功能、已经检查或安装的JAR包，不再重复查询
+ */
+class SessionCache {
+
+    private final static Map<MavenSession, SessionCache> caches = new WeakHashMap<>();
+
+    private final Map<String, Remote> remotes = new ConcurrentHashMap<>();
+
+    /** 获得会话的缓存 */
+    static synchronized SessionCache get(MavenSession session) {
+        return caches.computeIfAbsent(session, k -> new SessionCache());
+    }
+
+    /** 获得地址相同的容器，没有时使用remote */
+    Remote getRemote(Remote remote) {
+        Remote cached = remotes.computeIfAbsent(remote.getAddress(), k -> remote);
+        cached.failed = false;      // 每次部署重新统计
+        return cached;
+    }
+}
@@ -0,0 +1,162 @@
+package rewin.ubsi.maven;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 容器运行目录的增量同步
+ *  - 清单文件记录每个目标文件对应的源文件长度、修改时间、摘要以及目标文件的修改时间
+ *  - 只复制新增或变化的文件，只删除多余的文件
+ *  - 可以使用硬链接代替复制（源文件和目标文件不在同一个文件系统时自动改为复制），
+ *    硬链接与源文件共用内容，只能用于容器不会写入的目录（core-libs），否则容器的写入会改变本地仓库或target中的文件
+ */
+class Stager {
+
+    final static String MANIFEST_FILE = ".ubsi-stage.properties";
+
+    private File root;          // 运行目录
+    private boolean link;       // 是否使用硬链接
+    private Properties manifest = new Properties();
+
+    int copied = 0;             // 复制的文件数量
+    int linked = 0;             // 链接的文件数量
+    int unchanged = 0;          // 未变化的文件数量
+    int deleted = 0;            // 删除的文件数量
+
+    Stager(File root, boolean link) {
+        this.root = root;
+        this.link = link;
+        File file = new File(root, MANIFEST_FILE);
+        if ( file.isFile() ) {
+            try (InputStream in = new FileInputStream(file)) {
+                manifest.load(in);
+            } catch (Exception e) {
+                manifest.clear();       // 清单损坏，全部重新复制
+            }
+        }
+    }
+
+    /** 收集源目录中的文件，键为带前缀的相对路径，空目录的键以"/"结尾 */
+    static void collect(File srcDir, String prefix, Map<String, File> files) {
+        File[] list = srcDir.listFiles();
+        if ( list == null || list.length == 0 ) {
+            files.put(prefix + "/", srcDir);
+            return;
+        }
+        for ( File file : list ) {
+            if ( file.isDirectory() )
+                collect(file, prefix + "/" + file.getName(), files);
+            else if ( file.isFile() )
+                files.put(prefix + "/" + file.getName(), file);
+        }
+    }
+
+    /** 同步目录，files的键为相对于dir的路径，readOnly表示容器不会写入这个目录（可以使用硬链接） */
+    void sync(File dir, Map<String, File> files, boolean readOnly) throws IOException {
+        Path base = dir.toPath();
+        Set<String> dirs = new HashSet<>();     // 需要保留的目录
+        for ( String key : files.keySet() )
+            for ( int i = key.indexOf('/'); i > 0; i = key.indexOf('/', i + 1) )
+                dirs.add(key.substring(0, i));
+
+        // 删除多余的文件和目录
+        if ( dir.isDirectory() ) {
+            List<Path> paths;
+            try (Stream<Path> stream = Files.walk(base)) {
+                paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+            }
+            for ( Path path : paths ) {
+                if ( path.equals(base) )
+                    continue;
+                String rel = base.relativize(path).toString().replace(File.separatorChar, '/');
+                if ( Files.isDirectory(path) ) {
+                    if ( !dirs.contains(rel) && isEmpty(path) )
+                        Files.delete(path);
+                } else if ( !files.containsKey(rel) ) {
+                    Files.delete(path);
+                    manifest.remove(getKey(path.toFile()));
+                    deleted ++;
+                }
+            }
+        }
+
+        dir.mkdirs();
+        for ( Map.Entry<String, File> entry : files.entrySet() ) {
+            String rel = entry.getKey();
+            if ( rel.endsWith("/") )
+                new File(dir, rel).mkdirs();
+            else
+                stage(entry.getValue(), new File(dir, rel), link && readOnly);
+        }
+    }
+
+    /** 保存清单 */
+    void save() {
+        root.mkdirs();
+        try (OutputStream out = new FileOutputStream(new File(root, MANIFEST_FILE))) {
+            manifest.store(out, "ubsi-maven-plugin staged files");
+        } catch (Exception e) {
+        }
+    }
+
+    // 同步一个文件
+    private void stage(File src, File target, boolean link) throws IOException {
+        String key = getKey(target);
+        String value = manifest.getProperty(key);
+        String[] rec = value == null ? null : value.split(":");
+        String len = String.valueOf(src.length());
+        String mtime = String.valueOf(src.lastModified());
+        String sha = null;
+        if ( rec != null && rec.length == 4 && target.isFile() && target.length() == src.length()
+                && rec[3].equals(String.valueOf(target.lastModified()))
+                && (link || !Files.isSameFile(src.toPath(), target.toPath())) ) {    // 不能使用硬链接时替换以前的链接
+            if ( rec[0].equals(len) && rec[1].equals(mtime) ) {
+                unchanged ++;
+                return;
+            }
+            sha = DigestCache.sha256(src);
+            if ( sha.equals(rec[2]) ) {
+                manifest.setProperty(key, len + ":" + mtime + ":" + sha + ":" + rec[3]);
+                unchanged ++;
+                return;
+            }
+        }
+        if ( sha == null )
+            sha = DigestCache.sha256(src);
+
+        target.getParentFile().mkdirs();
+        Files.deleteIfExists(target.toPath());
+        boolean done = false;
+        if ( link ) {
+            try {
+                Files.createLink(target.toPath(), src.toPath());
+                linked ++;
+                done = true;
+            } catch (Exception e) {
+            }
+        }
+        if ( !done ) {
+            Files.copy(src.toPath(), target.toPath());
+            copied ++;
+        }
+        manifest.setProperty(key, len + ":" + mtime + ":" + sha + ":" + target.lastModified());
+    }
+
+    // 清单中的键：相对于运行目录的路径
+    private String getKey(File target) {
+        return root.toPath().toAbsolutePath().normalize()
+                .relativize(target.toPath().toAbsolutePath().normalize())
+                .toString().replace(File.separatorChar, '/');
+    }
+
+    // 目录是否为空
+    private boolean isEmpty(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.list(dir)) {
+            return !stream.findAny().isPresent();
+        }
+    }
+}
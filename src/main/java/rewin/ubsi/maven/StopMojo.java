@@ -0,0 +1,120 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import rewin.ubsi.common.Codec;
+import rewin.ubsi.consumer.Context;
+import rewin.ubsi.container.Info;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 停止ubsi:run启动的后台容器：mvn ubsi:stop -Ddir={目标目录}
+ */
+@Mojo(
+        name = "stop",
+        requiresProject = false
+)
+public class StopMojo extends AbstractMojo {
+
+    private final static long POLL_INTERVAL = 200;      // 检查容器是否退出的间隔（毫秒）
+
+    /* 后台容器的运行目录，可以使用 -Ddir={xxx} 来指定 */
+    @Parameter( property = "dir", defaultValue = "maven-run")
+    private File dir;
+
+    /* 等待容器退出的时间（秒），超时后强制结束，可以使用 -Dubsi.stopTimeout={xxx} 来指定 */
+    @Parameter( property = "ubsi.stopTimeout", defaultValue = "30")
+    private int stopTimeout;
+
+    public void execute() throws MojoExecutionException {
+        System.out.println("\n> mvn ubsi:stop -Ddir={run_path}\n");
+
+        Daemon daemon = Daemon.load(dir);
+        if ( daemon == null ) {
+            getLog().info("no daemon container in \"" + dir + "\"");
+            return;
+        }
+        long deadline = System.currentTimeMillis() + stopTimeout * 1000L;
+        try {
+            Context.startup(".");
+            Remote remote = new Remote("localhost", daemon.port);
+            boolean responding = drain(remote);
+            Boolean same = daemon.isSameProcess();
+            Boolean running = daemon.isRunning();
+            if ( Boolean.FALSE.equals(running) || Boolean.FALSE.equals(same) || (same == null && !responding) ) {
+                // 进程已经退出，或者进程号可能已经被其他进程使用，不发送信号
+                getLog().warn("container process" + (daemon.pid > 0 ? " " + daemon.pid : "") + " not found" +
+                        (Boolean.FALSE.equals(same) ? " (pid reused by another process)" : "") + ", delete stale \"" + Daemon.DAEMON_FILE + "\"");
+                Daemon.delete(dir);
+                System.out.println();
+                return;
+            }
+            if ( !daemon.terminate(false) )
+                getLog().warn("can't signal container process" + (daemon.pid > 0 ? " " + daemon.pid : "") + ", stop it manually");
+            else if ( !waitExit(daemon, remote, deadline) ) {
+                getLog().warn("container not exit in " + stopTimeout + "s, kill it");
+                daemon.terminate(true);
+                waitExit(daemon, remote, System.currentTimeMillis() + stopTimeout * 1000L);
+            }
+        } catch (Exception e) {
+            throw new MojoExecutionException("stop container error, " + e);
+        } finally {
+            try { Context.shutdown(); } catch (Exception e) {}
+        }
+        Daemon.delete(dir);
+        getLog().info("====== ubsi-container on port " + daemon.port + " stopped ======");
+        System.out.println();
+    }
+
+    // 停止所有运行中的服务/过滤器，不再处理新的请求；容器没有响应时返回false
+    private boolean drain(Remote remote) {
+        Info.Runtime info;
+        try {
+            info = Codec.toType(remote.call("getRuntime"), Info.Runtime.class);
+        } catch (Exception e) {
+            getLog().warn("container on port " + remote.port + " not responding, " + e);
+            return false;
+        }
+        List<String> names = new ArrayList<>();
+        if ( info.services != null )
+            for ( Map.Entry<String, Info.SRuntime> entry : info.services.entrySet() )
+                if ( entry.getValue().status == 1 )
+                    names.add(entry.getKey());
+        if ( info.filters != null )
+            for ( Info.FRuntime fr : info.filters )
+                if ( fr.status == 1 )
+                    names.add(fr.class_name);
+        for ( String name : names ) {
+            try {
+                getLog().info("stop \"" + name + "\" ...");
+                remote.call("setStatus", name, 0);
+            } catch (Exception e) {
+                getLog().warn("stop \"" + name + "\" error, " + e);
+            }
+        }
+        return true;
+    }
+
+    // 等待容器退出：进程结束，或者无法判断进程时端口不再响应
+    private boolean waitExit(Daemon daemon, Remote remote, long deadline) {
+        while ( System.currentTimeMillis() < deadline ) {
+            Boolean running = daemon.isRunning();
+            if ( running == null ) {
+                try {
+                    remote.call("getRuntime");
+                } catch (Exception e) {
+                    return true;
+                }
+            } else if ( !running )
+                return true;
+            try { Thread.sleep(POLL_INTERVAL); } catch (Exception e) { return false; }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,263 @@
+package rewin.ubsi.maven;
+
+import rewin.ubsi.common.Util;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 部署的遥测数据：每个容器/模块各阶段的时间、上传的字节数、管理接口的请求数量及延迟，
+ * 以及不属于模块的阶段（prepare：解析项目及依赖，runtime：获得容器的运行状态）
+ */
+class Telemetry {
+
+    private final static ThreadLocal<Phase> current = new ThreadLocal<>();     // 当前线程所在的阶段
+
+    /** 部署的一个阶段，在finally中调用close()结束，并恢复上一个阶段 */
+    static class Phase implements AutoCloseable {
+        final String name;
+        final long start = System.nanoTime();
+        volatile long nanos = -1;
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong requests = new AtomicLong();
+        final Map<String, Rpc> rpcs = new ConcurrentHashMap<>();    // 每个管理接口的请求延迟
+        String container;       // 不属于模块的阶段所在的容器
+        private Phase prev;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public void close() {
+            nanos = System.nanoTime() - start;
+            current.set(prev);
+        }
+    }
+
+    // 一个管理接口的请求次数及延迟
+    static class Rpc {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong max = new AtomicLong();
+
+        void add(long n) {
+            count.incrementAndGet();
+            nanos.addAndGet(n);
+            max.accumulateAndGet(n, Math::max);
+        }
+    }
+
+    /** 报告中一个管理接口的请求，时间单位为毫秒 */
+    public static class RpcReport {
+        public String   entry;
+        public long     count;
+        public double   millis;         // 总延迟
+        public double   maxMillis;      // 最大延迟
+    }
+
+    /** 报告中的一个阶段（合并同名的阶段），时间单位为毫秒，吞吐量单位为KB/s */
+    public static class PhaseReport {
+        public String   name;
+        public String   container;      // 不属于模块的阶段所在的容器
+        public long     millis;
+        public long     bytes;
+        public long     requests;
+        public double   throughput;
+        public List<RpcReport> rpcs = new ArrayList<>();
+    }
+
+    /** 报告中的一个模块 */
+    public static class ModuleReport {
+        public String   container;
+        public String   module;
+        public long     millis;
+        public long     bytes;
+        public long     requests;
+        public double   throughput;
+        public String   slowest;        // 最慢的阶段
+        public String   error;
+        public List<PhaseReport> phases = new ArrayList<>();
+    }
+
+    /** 部署报告 */
+    public static class Report {
+        public long     time;
+        public long     millis;
+        public long     bytes;
+        public long     requests;
+        public List<PhaseReport> phases = new ArrayList<>();     // 不属于模块的阶段
+        public List<ModuleReport> modules = new ArrayList<>();
+    }
+
+    // 一个容器上的一个模块
+    private static class Module {
+        String container;
+        String module;
+        List<Phase> phases = Collections.synchronizedList(new ArrayList<>());
+        volatile String error;
+    }
+
+    private final long started = System.nanoTime();
+    private final Map<String, Module> modules = Collections.synchronizedMap(new LinkedHashMap<>());
+    private final List<Phase> phases = Collections.synchronizedList(new ArrayList<>());     // 不属于模块的阶段
+
+    // 获得模块的记录
+    private Module getModule(Remote remote, String mname) {
+        return modules.computeIfAbsent(remote.getAddress() + "/" + mname, k -> {
+            Module module = new Module();
+            module.container = remote.getAddress();
+            module.module = mname;
+            return module;
+        });
+    }
+
+    /** 开始一个阶段 */
+    Phase begin(Remote remote, String mname, String name) {
+        Phase phase = new Phase(name);
+        phase.prev = current.get();
+        current.set(phase);
+        getModule(remote, mname).phases.add(phase);
+        return phase;
+    }
+
+    /** 开始一个不属于模块的阶段，remote为null表示与容器无关 */
+    Phase begin(Remote remote, String name) {
+        Phase phase = new Phase(name);
+        phase.container = remote == null ? null : remote.getAddress();
+        phase.prev = current.get();
+        current.set(phase);
+        phases.add(phase);
+        return phase;
+    }
+
+    /** 记录模块的错误 */
+    void error(Remote remote, String mname, Exception e) {
+        getModule(remote, mname).error = String.valueOf(e);
+    }
+
+    /** 当前线程所在的阶段，没有时返回null */
+    static Phase current() {
+        return current.get();
+    }
+
+    /** 当前阶段记录一次管理接口的请求及延迟 */
+    static void request(String entry, long nanos) {
+        Phase phase = current.get();
+        if ( phase != null ) {
+            phase.requests.incrementAndGet();
+            phase.rpcs.computeIfAbsent(entry, k -> new Rpc()).add(nanos);
+        }
+    }
+
+    /** 当前阶段增加上传的字节数 */
+    static void bytes(long bytes) {
+        Phase phase = current.get();
+        if ( phase != null )
+            phase.bytes.addAndGet(bytes);
+    }
+
+    /** 在其他线程中执行时，计入指定的阶段 */
+    static <T> T with(Phase phase, Callable<T> callable) throws Exception {
+        Phase prev = current.get();
+        current.set(phase);
+        try {
+            return callable.call();
+        } finally {
+            current.set(prev);
+        }
+    }
+
+    // KB/s
+    private static double throughput(long bytes, long millis) {
+        return millis <= 0 ? 0 : bytes / 1024.0 / (millis / 1000.0);
+    }
+
+    // 合并同名的阶段
+    private static void merge(Map<String, PhaseReport> reports, Phase phase) {
+        String key = phase.container == null ? phase.name : phase.container + "/" + phase.name;
+        PhaseReport pr = reports.computeIfAbsent(key, k -> {
+            PhaseReport r = new PhaseReport();
+            r.name = phase.name;
+            r.container = phase.container;
+            return r;
+        });
+        pr.millis += (phase.nanos < 0 ? System.nanoTime() - phase.start : phase.nanos) / 1000000;
+        pr.bytes += phase.bytes.get();
+        pr.requests += phase.requests.get();
+        for ( Map.Entry<String, Rpc> entry : phase.rpcs.entrySet() ) {
+            RpcReport rr = null;
+            for ( RpcReport r : pr.rpcs )
+                if ( r.entry.equals(entry.getKey()) )
+                    rr = r;
+            if ( rr == null ) {
+                rr = new RpcReport();
+                rr.entry = entry.getKey();
+                pr.rpcs.add(rr);
+            }
+            Rpc rpc = entry.getValue();
+            rr.count += rpc.count.get();
+            rr.millis += rpc.nanos.get() / 1e6;
+            rr.maxMillis = Math.max(rr.maxMillis, rpc.max.get() / 1e6);
+        }
+    }
+
+    /** 生成报告 */
+    Report getReport() {
+        Report report = new Report();
+        report.time = System.currentTimeMillis();
+        report.millis = (System.nanoTime() - started) / 1000000;
+        Map<String, PhaseReport> globals = new LinkedHashMap<>();
+        synchronized (phases) {
+            for ( Phase phase : phases )
+                merge(globals, phase);
+        }
+        for ( PhaseReport pr : globals.values() ) {
+            pr.throughput = throughput(pr.bytes, pr.millis);
+            report.phases.add(pr);
+            report.requests += pr.requests;
+        }
+        List<Module> list;
+        synchronized (modules) {
+            list = new ArrayList<>(modules.values());
+        }
+        for ( Module module : list ) {
+            ModuleReport mr = new ModuleReport();
+            mr.container = module.container;
+            mr.module = module.module;
+            mr.error = module.error;
+            Map<String, PhaseReport> phases = new LinkedHashMap<>();
+            synchronized (module.phases) {
+                for ( Phase phase : module.phases )
+                    merge(phases, phase);
+            }
+            PhaseReport slowest = null;
+            for ( PhaseReport pr : phases.values() ) {
+                pr.throughput = throughput(pr.bytes, pr.millis);
+                mr.millis += pr.millis;
+                mr.bytes += pr.bytes;
+                mr.requests += pr.requests;
+                if ( slowest == null || pr.millis > slowest.millis )
+                    slowest = pr;
+            }
+            mr.throughput = throughput(mr.bytes, mr.millis);
+            mr.slowest = slowest == null ? null : slowest.name;
+            mr.phases.addAll(phases.values());
+            report.modules.add(mr);
+            report.bytes += mr.bytes;
+            report.requests += mr.requests;
+        }
+        return report;
+    }
+
+    /** 保存报告 */
+    Report save(File file) throws Exception {
+        Report report = getReport();
+        file.getParentFile().mkdirs();
+        Util.saveJsonFile(file, report);
+        return report;
+    }
+}
@@ -0,0 +1,147 @@
+package rewin.ubsi.maven;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.jar.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * 监视文件及目录的变化，连续的变化合并为一次通知
+ */
+class Watcher implements Closeable {
+
+    private WatchService service;
+    private Map<WatchKey, Path> keys = new HashMap<>();     // 监视的目录
+    private Set<Path> trees = new HashSet<>();              // 需要递归监视的目录
+
+    Watcher() throws IOException {
+        service = FileSystems.getDefault().newWatchService();
+    }
+
+    /** 递归监视目录 */
+    void watchTree(Path dir) throws IOException {
+        dir = dir.toAbsolutePath().normalize();
+        if ( !Files.isDirectory(dir) )
+            return;
+        trees.add(dir);
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                register(d);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** 监视文件（监视文件所在的目录） */
+    void watchFile(Path file) throws IOException {
+        Path dir = file.toAbsolutePath().normalize().getParent();
+        if ( dir != null && Files.isDirectory(dir) && !keys.containsValue(dir) )
+            register(dir);
+    }
+
+    /** 等待变化，直到debounce毫秒内没有新的变化，返回变化的文件（绝对路径） */
+    Set<Path> poll(long debounce) throws InterruptedException, IOException {
+        Set<Path> changed = new LinkedHashSet<>();
+        WatchKey key = service.take();
+        while ( key != null ) {
+            Path dir = keys.get(key);
+            for ( WatchEvent<?> event : key.pollEvents() ) {
+                if ( dir == null || event.kind() == StandardWatchEventKinds.OVERFLOW )
+                    continue;
+                Path path = dir.resolve((Path)event.context());
+                changed.add(path);
+                if ( event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path) && isInTree(path) )
+                    watchTree(path);    // 新建的子目录
+            }
+            if ( !key.reset() )
+                keys.remove(key);
+            key = service.poll(debounce, java.util.concurrent.TimeUnit.MILLISECONDS);
+        }
+        return changed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        service.close();
+    }
+
+    // 注册目录
+    private void register(Path dir) throws IOException {
+        keys.put(dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), dir);
+    }
+
+    // 是否在递归监视的目录中
+    private boolean isInTree(Path path) {
+        for ( Path tree : trees )
+            if ( path.startsWith(tree) )
+                return true;
+        return false;
+    }
+
+    /** 使用编译输出目录重新生成JAR包，保留原JAR包中的MANIFEST及META-INF/maven/下的内容 */
+    static void rebuildJar(File classes, File jar) throws IOException {
+        Manifest manifest = null;
+        Map<String, byte[]> extra = new LinkedHashMap<>();
+        File mf = new File(classes, JarFile.MANIFEST_NAME);
+        if ( mf.isFile() ) {
+            try (InputStream in = new FileInputStream(mf)) {
+                manifest = new Manifest(in);
+            }
+        }
+        if ( jar.isFile() ) {
+            try (JarFile old = new JarFile(jar)) {
+                if ( manifest == null )
+                    manifest = old.getManifest();
+                for ( JarEntry entry : Collections.list(old.entries()) )
+                    if ( !entry.isDirectory() && entry.getName().startsWith("META-INF/maven/") )
+                        try (InputStream in = old.getInputStream(entry)) {
+                            ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                            byte[] b = new byte[8192];
+                            int n;
+                            while ( (n = in.read(b)) > 0 )
+                                buf.write(b, 0, n);
+                            extra.put(entry.getName(), buf.toByteArray());
+                        }
+            }
+        }
+        if ( manifest == null ) {
+            manifest = new Manifest();
+            manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        }
+
+        File tmp = new File(jar.getParentFile(), jar.getName() + ".tmp");
+        Path base = classes.toPath();
+        try (JarOutputStream out = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)), manifest)) {
+            List<Path> paths;
+            try (Stream<Path> stream = Files.walk(base)) {
+                paths = stream.sorted().collect(Collectors.toList());
+            }
+            for ( Path path : paths ) {
+                if ( path.equals(base) )
+                    continue;
+                String name = base.relativize(path).toString().replace(File.separatorChar, '/');
+                if ( Files.isDirectory(path) ) {
+                    if ( !name.equals("META-INF") )
+                        out.putNextEntry(new JarEntry(name + "/"));
+                    continue;
+                }
+                if ( name.equals(JarFile.MANIFEST_NAME) || extra.containsKey(name) )
+                    continue;
+                out.putNextEntry(new JarEntry(name));
+                Files.copy(path, out);
+                out.closeEntry();
+            }
+            for ( Map.Entry<String, byte[]> entry : extra.entrySet() ) {
+                out.putNextEntry(new JarEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+        Files.move(tmp.toPath(), jar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -0,0 +1,86 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * CoreResolver的版本选择及UBSI核心包的优先
+ */
+public class CoreResolverTest {
+
+    private static CoreResolver newResolver() {
+        return new CoreResolver(aid -> "rewin.ubsi.core".equals(aid) || "ubsi-core-ce".equals(aid));
+    }
+
+    private static Artifact artifact(String gid, String aid, String ver) {
+        return new DefaultArtifact(gid, aid, ver, Artifact.SCOPE_RUNTIME, "jar", null, new DefaultArtifactHandler("jar"));
+    }
+
+    private static List<String> names(CoreResolver resolver) {
+        List<String> res = new ArrayList<>();
+        for ( Artifact artifact : resolver.getArtifacts() )
+            res.add(artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion());
+        return res;
+    }
+
+    @Test
+    public void highestVersion() {
+        // 按Maven的版本规则比较，而不是字符串
+        CoreResolver resolver = newResolver();
+        resolver.add(artifact("com.example", "lib", "1.9"));
+        resolver.add(artifact("com.example", "lib", "1.10"));
+        resolver.add(artifact("com.example", "lib", "1.10-SNAPSHOT"));
+        resolver.add(artifact("org.other", "lib", "0.1"));
+        assertEquals(2, resolver.getArtifacts().size());
+        assertTrue(names(resolver).contains("com.example:lib:1.10"));
+        assertTrue(names(resolver).contains("org.other:lib:0.1"));
+
+        List<String> conflicts = resolver.getConflicts();
+        assertEquals(1, conflicts.size());
+        assertTrue(conflicts.get(0).startsWith("com.example:lib:1.10 selected"));
+        assertTrue(conflicts.get(0).contains("com.example:lib:1.9"));
+        assertTrue(conflicts.get(0).contains("com.example:lib:1.10-SNAPSHOT"));
+    }
+
+    @Test
+    public void ubsiCorePreferred() {
+        // 版本相同时优先使用rewin.ubsi.core，与添加的顺序无关
+        CoreResolver resolver = newResolver();
+        resolver.add(artifact("com.rewin", "ubsi-core-ce", "2.3.2"));
+        resolver.add(artifact("rewin", "rewin.ubsi.core", "2.3.2"));
+        assertEquals(1, resolver.getArtifacts().size());
+        assertEquals("rewin:rewin.ubsi.core:2.3.2", names(resolver).get(0));
+
+        resolver = newResolver();
+        resolver.add(artifact("rewin", "rewin.ubsi.core", "2.3.2"));
+        resolver.add(artifact("com.rewin", "ubsi-core-ce", "2.3.2"));
+        assertEquals("rewin:rewin.ubsi.core:2.3.2", names(resolver).get(0));
+        assertTrue(resolver.getConflicts().get(0).contains("rewin.ubsi.core preferred"));
+    }
+
+    @Test
+    public void ubsiCoreHighestVersion() {
+        // 版本不同时使用最高版本的核心包
+        CoreResolver resolver = newResolver();
+        resolver.add(artifact("rewin", "rewin.ubsi.core", "2.3.1"));
+        resolver.add(artifact("com.rewin", "ubsi-core-ce", "2.3.2"));
+        assertEquals(1, resolver.getArtifacts().size());
+        assertEquals("com.rewin:ubsi-core-ce:2.3.2", names(resolver).get(0));
+    }
+
+    @Test
+    public void noConflict() {
+        CoreResolver resolver = newResolver();
+        resolver.add(artifact("com.example", "lib", "1.0"));
+        resolver.add(artifact("com.example", "lib", "1.0"));
+        assertEquals(1, resolver.getArtifacts().size());
+        assertTrue(resolver.getConflicts().isEmpty());
+    }
+}
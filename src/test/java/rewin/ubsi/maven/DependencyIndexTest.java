@@ -0,0 +1,98 @@
+package rewin.ubsi.maven;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.shared.dependency.graph.DependencyNode;
+import org.apache.maven.shared.dependency.graph.internal.DefaultDependencyNode;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * DependencyIndex与原来的递归查找（先序遍历中第一个匹配的节点）结果一致
+ */
+public class DependencyIndexTest {
+
+    // 原来的查找方式
+    private static DependencyNode findNode(DependencyNode node, String artifact) {
+        if ( node.getArtifact().getArtifactId().equals(artifact) )
+            return node;
+        for ( DependencyNode child : node.getChildren() ) {
+            DependencyNode res = findNode(child, artifact);
+            if ( res != null )
+                return res;
+        }
+        return null;
+    }
+
+    // 原来的依赖收集方式
+    private static Set<Artifact> findDependency(DependencyNode node, Set<Artifact> res) {
+        for ( DependencyNode child : node.getChildren() ) {
+            res.add(child.getArtifact());
+            findDependency(child, res);
+        }
+        return res;
+    }
+
+    private static DefaultDependencyNode node(DependencyNode parent, String gid, String aid, DependencyNode... children) {
+        Artifact artifact = new DefaultArtifact(gid, aid, "1.0", Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler("jar"));
+        DefaultDependencyNode node = new DefaultDependencyNode(parent, artifact, null, null, null);
+        node.setChildren(new ArrayList<>(Arrays.asList(children)));
+        return node;
+    }
+
+    /*
+     * root
+     *  ├─ a:svc
+     *  │   ├─ a:util
+     *  │   │   └─ a:deep
+     *  │   └─ b:util       （artifactId与a:util相同）
+     *  ├─ b:svc
+     *  │   └─ a:deep       （与a:svc下的a:deep相同，先序遍历中较晚出现）
+     *  └─ c:leaf
+     */
+    private static DependencyNode tree() {
+        DependencyNode deep1 = node(null, "a", "deep");
+        DependencyNode deep2 = node(null, "a", "deep");
+        DependencyNode util = node(null, "a", "util", deep1);
+        DependencyNode svcA = node(null, "a", "svc", util, node(null, "b", "util"));
+        DependencyNode svcB = node(null, "b", "svc", deep2);
+        return node(null, "root", "root", svcA, svcB, node(null, "c", "leaf"));
+    }
+
+    @Test
+    public void findByArtifactId() {
+        DependencyNode root = tree();
+        DependencyIndex index = new DependencyIndex(root);
+        for ( String aid : new String[] { "root", "svc", "util", "deep", "leaf", "missing" } )
+            assertSame(aid, findNode(root, aid), index.find(aid));
+    }
+
+    @Test
+    public void findByKey() {
+        DependencyNode root = tree();
+        DependencyIndex index = new DependencyIndex(root);
+        DependencyNode svcA = root.getChildren().get(0);
+        assertSame(svcA.getChildren().get(0), index.find("a:util"));
+        assertSame(svcA.getChildren().get(1), index.find("b:util"));
+        assertSame(root.getChildren().get(1), index.find("b:svc"));
+        assertSame(svcA.getChildren().get(0).getChildren().get(0), index.find("a:deep"));
+        assertNull(index.find("c:svc"));
+    }
+
+    @Test
+    public void dependencyClosure() {
+        DependencyNode root = tree();
+        DependencyIndex index = new DependencyIndex(root);
+        for ( String aid : new String[] { "root", "svc", "util", "deep", "leaf" } ) {
+            DependencyNode node = findNode(root, aid);
+            assertEquals(aid, findDependency(node, new HashSet<>()), index.getDependency(node));
+        }
+        DependencyNode svcB = index.find("b:svc");
+        assertEquals(findDependency(svcB, new HashSet<>()), index.getDependency(svcB));
+        assertSame(index.getDependency(root), index.getDependency(root));     // 缓存
+    }
+}
@@ -0,0 +1,90 @@
+package rewin.ubsi.maven;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * LatencyHistogram的桶边界及百分位数
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void exactBelowSubCount() {
+        for ( long v = 0; v < LatencyHistogram.SUB_COUNT; v ++ ) {
+            assertEquals(v, LatencyHistogram.index(v));
+            assertEquals(v, LatencyHistogram.highest((int)v));
+        }
+        assertEquals(0, LatencyHistogram.index(-1));
+    }
+
+    @Test
+    public void bucketBoundaries() {
+        // 256开始每段128个桶，第一段每个桶包含2个值
+        assertEquals(256, LatencyHistogram.index(256));
+        assertEquals(256, LatencyHistogram.index(257));
+        assertEquals(257, LatencyHistogram.index(258));
+        assertEquals(257, LatencyHistogram.highest(256));
+        assertEquals(383, LatencyHistogram.index(511));
+        assertEquals(384, LatencyHistogram.index(512));
+        assertEquals(515, LatencyHistogram.highest(384));
+        int last = LatencyHistogram.index(Long.MAX_VALUE);
+        assertTrue(last < LatencyHistogram.BUCKETS);
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.highest(last));
+    }
+
+    @Test
+    public void bucketContainsValue() {
+        // 桶是连续的，值不超过所在桶的最大值，相对误差小于1%
+        long prev = -1;
+        for ( int i = 0; i < LatencyHistogram.BUCKETS; i ++ ) {
+            long high = LatencyHistogram.highest(i);
+            assertEquals(i, LatencyHistogram.index(prev + 1));
+            assertEquals(i, LatencyHistogram.index(high));
+            assertTrue(high - (prev + 1) <= Math.max(0, high / 100));
+            prev = high;
+            if ( high == Long.MAX_VALUE )
+                break;
+        }
+        assertEquals(Long.MAX_VALUE, prev);
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getPercentile(50));
+        for ( long v = 1; v <= 1000; v ++ )
+            h.recordValue(v);
+        assertEquals(1000, h.getCount());
+        assertEquals(1, h.getMin());
+        assertEquals(1000, h.getMax());
+        assertEquals(500.5, h.getMean(), 1e-9);
+        assertEquals(1, h.getPercentile(0));
+        assertEquals(100, h.getPercentile(10));
+        assertWithin(500, h.getPercentile(50));
+        assertWithin(990, h.getPercentile(99));
+        assertEquals(1000, h.getPercentile(100));
+    }
+
+    @Test
+    public void merge() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        for ( long v = 1; v <= 100; v ++ )
+            a.recordValue(v);
+        for ( long v = 10001; v <= 10100; v ++ )
+            b.recordValue(v);
+        a.add(b);
+        assertEquals(200, a.getCount());
+        assertEquals(1, a.getMin());
+        assertEquals(10100, a.getMax());
+        assertEquals(100, a.getPercentile(50));
+        assertWithin(10001, a.getPercentile(50.5));
+    }
+
+    // 百分位数是所在桶的最大值，不小于精确值，误差小于1%
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " < " + expected, actual >= expected);
+        assertTrue(actual + " > " + expected + " + 1%", actual <= expected + expected / 100);
+    }
+}